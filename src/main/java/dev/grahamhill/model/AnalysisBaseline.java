@@ -0,0 +1,11 @@
+package dev.grahamhill.model;
+
+import java.util.List;
+import java.util.Map;
+
+// State stored by a previous analysis: the ref tips it reached and the per-commit facts it produced
+public record AnalysisBaseline(
+    String settingsKey,
+    Map<String, String> refTips,
+    List<CommitContribution> contributions
+) {}
@@ -0,0 +1,23 @@
+package dev.grahamhill.model;
+
+import java.util.List;
+
+// Snapshot published while an analysis walk is running: stats so far and the commit rows added since the last one
+public record AnalysisProgress(
+    int commitsProcessed,
+    int totalCommits,
+    long elapsedMillis,
+    List<ContributorStats> contributorStats,
+    List<CommitInfo> newCommits,
+    boolean finished
+) {
+    public double fraction() {
+        return totalCommits > 0 ? Math.min(1.0, (double) commitsProcessed / totalCommits) : 0.0;
+    }
+
+    // Remaining time at the average speed so far, -1 until there is enough to estimate from
+    public long estimatedRemainingMillis() {
+        if (commitsProcessed == 0 || totalCommits == 0) return -1;
+        return elapsedMillis * Math.max(0, totalCommits - commitsProcessed) / commitsProcessed;
+    }
+}
@@ -0,0 +1,8 @@
+package dev.grahamhill.model;
+
+// One stored analysis of a repository; its contributor metrics are the rows saved with the same run id
+public record AnalysisRun(
+    long runId,
+    String repoId,
+    String createdAt // SQLite CURRENT_TIMESTAMP, UTC
+) {}
@@ -0,0 +1,38 @@
+package dev.grahamhill.model;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// Part of the history an analysis looks at. A maxCommits of 0, null dates and empty lists mean no restriction.
+// Dates are inclusive days in the system time zone; authors match a substring of "Name <email>".
+public record AnalysisScope(
+    int maxCommits,
+    LocalDate since,
+    LocalDate until,
+    List<String> includePaths,
+    List<String> excludePaths,
+    List<String> authors
+) {
+    public static final AnalysisScope ALL = new AnalysisScope(0, null, null, List.of(), List.of(), List.of());
+
+    public AnalysisScope {
+        maxCommits = Math.max(0, maxCommits);
+        includePaths = includePaths == null ? List.of() : List.copyOf(includePaths);
+        excludePaths = excludePaths == null ? List.of() : List.copyOf(excludePaths);
+        authors = authors == null ? List.of() : List.copyOf(authors);
+    }
+
+    // Commits of the last `days` days, everything for 0
+    public static AnalysisScope lastDays(int days) {
+        if (days <= 0) return ALL;
+        return new AnalysisScope(0, LocalDate.now().minusDays(days), null, List.of(), List.of(), List.of());
+    }
+
+    public boolean isAll() {
+        return equals(ALL);
+    }
+
+    public boolean hasPathFilter() {
+        return !includePaths.isEmpty() || !excludePaths.isEmpty();
+    }
+}
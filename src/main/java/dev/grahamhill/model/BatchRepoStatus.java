@@ -0,0 +1,21 @@
+package dev.grahamhill.model;
+
+// State of one repository in a batch analysis; commit counts come from the repository's progress snapshots
+public record BatchRepoStatus(
+    String repoId,
+    State state,
+    int commitsProcessed,
+    int totalCommits,
+    String message // failure reason, empty otherwise
+) {
+    public enum State { QUEUED, WAITING_FOR_MEMORY, RUNNING, DONE, FAILED, CANCELLED }
+
+    public boolean isFinal() {
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    public double fraction() {
+        if (state == State.DONE) return 1.0;
+        return totalCommits > 0 ? Math.min(1.0, (double) commitsProcessed / totalCommits) : 0.0;
+    }
+}
@@ -0,0 +1,28 @@
+package dev.grahamhill.model;
+
+import java.util.List;
+import java.util.Map;
+
+// What a single commit contributed, before aliases and genders are applied
+public record CommitContribution(
+    String commitHash,
+    long commitTime,
+    String authorName,
+    String authorEmail,
+    boolean isMerge,
+    int linesAdded,
+    int linesDeleted,
+    int blankLinesAdded,
+    int blankLinesDeleted,
+    boolean meaningless,
+    int generatedFilesPushed,
+    int documentationLinesAdded,
+    int filesAdded,
+    int filesEdited,
+    int filesDeleted,
+    boolean touchedTests,
+    double aiProbability,
+    Map<String, Integer> languageBreakdown,
+    Map<String, Integer> directoryBreakdown,
+    List<CommitFileChange> files // empty when read back from a baseline
+) {}
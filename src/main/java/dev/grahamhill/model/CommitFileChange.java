@@ -0,0 +1,10 @@
+package dev.grahamhill.model;
+
+// One file a commit changed, as stored in the file_changes fact table
+public record CommitFileChange(
+    String path,
+    String category,
+    String changeType, // ADD, MODIFY, DELETE, RENAME, COPY
+    int insertions,
+    int deletions
+) {}
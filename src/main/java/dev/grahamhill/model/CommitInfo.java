@@ -16,5 +16,6 @@ public record CommitInfo(
     int linesAdded,
     int linesDeleted,
     boolean isMerge,
-    String branch
+    String branch,
+    String commitHash // full object id; id is its abbreviation
 ) {}
@@ -0,0 +1,43 @@
+package dev.grahamhill.model;
+
+// Line counts of the diff between two blobs. Counts that were not computed yet are -1.
+public record DiffStat(
+    int insertions,
+    int deletions,
+    int blankLinesAdded,
+    int blankLinesDeleted,
+    int whitespaceOnlyInsertions,
+    int whitespaceOnlyDeletions
+) {
+    public static final int NOT_COMPUTED = -1;
+
+    public static DiffStat of(int insertions, int deletions) {
+        return new DiffStat(insertions, deletions, NOT_COMPUTED, NOT_COMPUTED, NOT_COMPUTED, NOT_COMPUTED);
+    }
+
+    public boolean hasBlankLines() {
+        return blankLinesAdded != NOT_COMPUTED;
+    }
+
+    public boolean hasWhitespace() {
+        return whitespaceOnlyInsertions != NOT_COMPUTED;
+    }
+
+    public DiffStat withBlankLines(int added, int deleted) {
+        return new DiffStat(insertions, deletions, added, deleted, whitespaceOnlyInsertions, whitespaceOnlyDeletions);
+    }
+
+    public DiffStat withWhitespace(int insertionsOnly, int deletionsOnly) {
+        return new DiffStat(insertions, deletions, blankLinesAdded, blankLinesDeleted, insertionsOnly, deletionsOnly);
+    }
+
+    // Keeps every count that either side has computed
+    public DiffStat merge(DiffStat other) {
+        if (other == null) return this;
+        return new DiffStat(insertions, deletions,
+                hasBlankLines() ? blankLinesAdded : other.blankLinesAdded,
+                hasBlankLines() ? blankLinesDeleted : other.blankLinesDeleted,
+                hasWhitespace() ? whitespaceOnlyInsertions : other.whitespaceOnlyInsertions,
+                hasWhitespace() ? whitespaceOnlyDeletions : other.whitespaceOnlyDeletions);
+    }
+}
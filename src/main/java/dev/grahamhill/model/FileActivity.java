@@ -0,0 +1,12 @@
+package dev.grahamhill.model;
+
+// Stored file changes of one path summed over the analyzed history; topAuthor changed the most lines in it
+public record FileActivity(
+    String path,
+    String category,
+    int commits,
+    int insertions,
+    int deletions,
+    int authors,
+    String topAuthor
+) {}
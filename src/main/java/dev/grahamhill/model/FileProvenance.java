@@ -0,0 +1,11 @@
+package dev.grahamhill.model;
+
+// The commit that first added a path; renamedFrom is set when that commit added it by renaming another file
+public record FileProvenance(
+    String path,
+    String commitHash,
+    long commitTime,
+    String authorName,
+    String authorEmail,
+    String renamedFrom
+) {}
@@ -0,0 +1,16 @@
+package dev.grahamhill.model;
+
+import java.util.List;
+import java.util.Map;
+
+public record RepositoryAnalysis(
+    List<ContributorStats> contributorStats,
+    List<CommitInfo> recentCommits,
+    CommitInfo initialCommit,
+    MeaningfulChangeAnalysis meaningfulChangeAnalysis,
+    boolean incremental, // true when only commits after the baseline tips were diffed
+    Map<String, String> refTips,
+    List<CommitContribution> newContributions,
+    SkippedBlobs skippedBlobs, // binary and oversized blobs the diffs left out
+    String settingsKey // GitService.analysisSettingsKey of the scope the analysis ran with; stored with its baseline
+) {}
@@ -0,0 +1,16 @@
+package dev.grahamhill.model;
+
+// Blobs an analysis run read but did not diff as text: binary content, blobs over the size limit,
+// and large added or deleted files whose lines were counted from a stream instead
+public record SkippedBlobs(
+    int binaryBlobs,
+    int oversizedBlobs,
+    long oversizedBytes,
+    int streamedBlobs
+) {
+    public static final SkippedBlobs NONE = new SkippedBlobs(0, 0, 0, 0);
+
+    public boolean isEmpty() {
+        return binaryBlobs == 0 && oversizedBlobs == 0 && streamedBlobs == 0;
+    }
+}
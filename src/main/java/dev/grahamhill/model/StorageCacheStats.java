@@ -0,0 +1,15 @@
+package dev.grahamhill.model;
+
+// Counters of JGit's pack window cache since the process started
+public record StorageCacheStats(
+    long hits,
+    long misses,
+    long evictions,
+    long openFiles,
+    long openBytes
+) {
+    public double hitRatio() {
+        long requests = hits + misses;
+        return requests > 0 ? (double) hits / requests : 0.0;
+    }
+}
@@ -0,0 +1,275 @@
+package dev.grahamhill.service;
+
+import dev.grahamhill.model.AnalysisBaseline;
+import dev.grahamhill.model.AnalysisProgress;
+import dev.grahamhill.model.BatchRepoStatus;
+import dev.grahamhill.model.ContributorStats;
+import dev.grahamhill.model.RepositoryAnalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Analyzes a list of repositories on a bounded pool of workers, smallest first, and stores each result through
+ * DatabaseService as soon as that repository is done. A repository only starts once its share of the memory
+ * budget is free: its object database size on disk plus a fixed base, capped at the whole budget so every
+ * repository can still run on its own.
+ */
+public class BatchAnalysisScheduler {
+    private static final long BASE_RESERVATION = 64L << 20;
+
+    private final GitService gitService;
+    private final DatabaseService databaseService;
+    private final int workers;
+    private final long memoryBudget;
+
+    // What analyzeRepo takes from the UI, applied to every repository of the batch
+    public record Settings(
+        Map<String, String> aliases,
+        Map<String, String> genders,
+        Map<String, String> emailOverrides,
+        Set<String> ignoredExtensions,
+        Set<String> ignoredFolders,
+        String requiredFeatures,
+        int commitLimit,
+        String mainBranchName
+    ) {}
+
+    public BatchAnalysisScheduler(GitService gitService, DatabaseService databaseService, int workers, long memoryBudget) {
+        this.gitService = gitService;
+        this.databaseService = databaseService;
+        this.workers = Math.max(1, workers);
+        this.memoryBudget = Math.max(BASE_RESERVATION, memoryBudget);
+    }
+
+    // Each repository's analysis already diffs on all cores, a few at a time keep them busy between phases
+    public static int defaultWorkers() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public static long defaultMemoryBudget() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * Starts analyzing the repositories. The listener is called from the worker threads with every status
+     * change, starting with QUEUED for every repository in the order they will run.
+     */
+    public Job start(List<File> repositories, Settings settings, Consumer<BatchRepoStatus> listener) {
+        Job job = new Job(repositories.size(), listener);
+        List<RepoTask> tasks = new ArrayList<>();
+        for (File repository : repositories) {
+            tasks.add(new RepoTask(job, settings, repository));
+        }
+        tasks.sort(Comparator.comparingLong(task -> task.objectBytes));
+        for (RepoTask task : tasks) {
+            job.publish(new BatchRepoStatus(task.repoId, BatchRepoStatus.State.QUEUED, 0, 0, ""));
+        }
+        // The pool takes tasks in submission order, so the smallest repositories start first
+        for (RepoTask task : tasks) {
+            job.pool.execute(task);
+        }
+        job.pool.shutdown();
+        if (tasks.isEmpty()) job.completion.complete(null);
+        return job;
+    }
+
+    public final class Job {
+        // Daemon workers, so a batch the application could not stop never keeps the JVM alive
+        private final ExecutorService pool = Executors.newFixedThreadPool(workers,
+                Thread.ofPlatform().name("batch-analysis-", 1).daemon(true).factory());
+        private final Semaphore memory = new Semaphore(megabytes(memoryBudget));
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private final Consumer<BatchRepoStatus> listener;
+        private volatile boolean cancelled;
+
+        private Job(int repositories, Consumer<BatchRepoStatus> listener) {
+            this.remaining = new AtomicInteger(repositories);
+            this.listener = listener;
+        }
+
+        // Queued repositories are dropped, running ones are interrupted; results already stored stay
+        public void cancel() {
+            cancelled = true;
+            for (Runnable queued : pool.shutdownNow()) {
+                RepoTask task = (RepoTask) queued;
+                task.finish(new BatchRepoStatus(task.repoId, BatchRepoStatus.State.CANCELLED, 0, 0, ""));
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Completes once every repository reached a final state
+        public CompletableFuture<Void> completion() {
+            return completion;
+        }
+
+        private void publish(BatchRepoStatus status) {
+            if (listener != null) listener.accept(status);
+        }
+    }
+
+    private final class RepoTask implements Runnable {
+        final Job job;
+        final Settings settings;
+        final File repository;
+        final String repoId;
+        final long objectBytes;
+
+        RepoTask(Job job, Settings settings, File repository) {
+            this.job = job;
+            this.settings = settings;
+            this.repository = repository;
+            this.repoId = repoId(repository);
+            this.objectBytes = objectBytes(repository);
+        }
+
+        @Override
+        public void run() {
+            // Taken off the queue just before the job was cancelled
+            if (job.cancelled) {
+                finish(new BatchRepoStatus(repoId, BatchRepoStatus.State.CANCELLED, 0, 0, ""));
+                return;
+            }
+            int reservation = Math.min(megabytes(memoryBudget), megabytes(BASE_RESERVATION + objectBytes));
+            ProgressListener progress = new ProgressListener(this);
+            try {
+                if (!job.memory.tryAcquire(reservation)) {
+                    job.publish(new BatchRepoStatus(repoId, BatchRepoStatus.State.WAITING_FOR_MEMORY, 0, 0, ""));
+                    job.memory.acquire(reservation);
+                }
+                try {
+                    job.publish(new BatchRepoStatus(repoId, BatchRepoStatus.State.RUNNING, 0, 0, ""));
+                    analyze(progress);
+                } finally {
+                    job.memory.release(reservation);
+                }
+                finish(new BatchRepoStatus(repoId, BatchRepoStatus.State.DONE, progress.processed, progress.total, ""));
+            } catch (InterruptedException e) {
+                finish(new BatchRepoStatus(repoId, BatchRepoStatus.State.CANCELLED, progress.processed, progress.total, ""));
+            } catch (Exception e) {
+                BatchRepoStatus.State state = job.cancelled ? BatchRepoStatus.State.CANCELLED : BatchRepoStatus.State.FAILED;
+                finish(new BatchRepoStatus(repoId, state, progress.processed, progress.total, job.cancelled ? "" : String.valueOf(e.getMessage())));
+            }
+        }
+
+        private void analyze(ProgressListener progress) throws Exception {
+            AnalysisBaseline baseline = null;
+            if (databaseService != null) {
+                baseline = databaseService.loadAnalysisBaseline(repoId);
+            }
+            RepositoryAnalysis analysis;
+            try (GitService.Session _ = gitService.openSession(repository)) {
+                analysis = gitService.analyzeRepository(repository, settings.aliases(), settings.genders(), settings.ignoredExtensions(),
+                        settings.ignoredFolders(), settings.requiredFeatures(), settings.commitLimit(), settings.mainBranchName(), baseline, progress);
+            }
+            if (job.cancelled) throw new InterruptedException();
+            if (databaseService != null) {
+                List<ContributorStats> stats = withEmailOverrides(analysis.contributorStats(), settings.emailOverrides());
+                // DatabaseService serializes writers on its single connection, queued UI saves included
+                databaseService.inTransaction(() -> {
+                    databaseService.saveMetrics(repoId, stats);
+                    databaseService.saveCommits(repoId, analysis.recentCommits());
+                    databaseService.saveAnalysisBaseline(repoId, analysis.settingsKey(), analysis);
+                });
+            }
+        }
+
+        void finish(BatchRepoStatus status) {
+            job.publish(status);
+            if (job.remaining.decrementAndGet() == 0) job.completion.complete(null);
+        }
+    }
+
+    // Turns the analysis' progress snapshots into RUNNING statuses; never holds the walk back
+    private static final class ProgressListener implements Flow.Subscriber<AnalysisProgress> {
+        private final RepoTask task;
+        volatile int processed;
+        volatile int total;
+
+        ProgressListener(RepoTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(AnalysisProgress progress) {
+            processed = progress.commitsProcessed();
+            total = progress.totalCommits();
+            if (!progress.finished()) {
+                task.job.publish(new BatchRepoStatus(task.repoId, BatchRepoStatus.State.RUNNING, processed, total, ""));
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    // The display email configured per contributor name replaces the one from the commits
+    public static List<ContributorStats> withEmailOverrides(List<ContributorStats> stats, Map<String, String> emailOverrides) {
+        if (emailOverrides == null || emailOverrides.isEmpty()) return stats;
+        return stats.stream().map(s -> {
+            if (emailOverrides.containsKey(s.name())) {
+                return new ContributorStats(s.name(), emailOverrides.get(s.name()), s.gender(),
+                    s.commitCount(), s.mergeCount(), s.linesAdded(), s.linesDeleted(),
+                    s.languageBreakdown(), s.averageAiProbability(), s.filesAdded(),
+                    s.filesEdited(), s.filesDeletedCount(), s.meaningfulChangeScore(), s.touchedTests(), s.generatedFilesPushed(), s.documentationLinesAdded(), s.directoryBreakdown());
+            }
+            return s;
+        }).collect(Collectors.toList());
+    }
+
+    // Same id analyzeRepo stores results under
+    static String repoId(File repository) {
+        try {
+            return repository.getCanonicalPath();
+        } catch (IOException e) {
+            return repository.getAbsolutePath();
+        }
+    }
+
+    // Size of the packs and loose objects, the cheapest measure of how much history there is to walk
+    static long objectBytes(File repository) {
+        File objects = new File(repository, ".git/objects");
+        if (!objects.isDirectory()) objects = new File(repository, "objects");
+        if (!objects.isDirectory()) return 0;
+        try (Stream<Path> files = Files.walk(objects.toPath())) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+
+    private static int megabytes(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, bytes >> 20));
+    }
+}
@@ -0,0 +1,97 @@
+package dev.grahamhill.service;
+
+import dev.grahamhill.model.DiffStat;
+import dev.grahamhill.model.SkippedBlobs;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size limit above which a blob is never loaded into memory, and the counts of blobs a run did not diff as text.
+ * One guard is shared by all workers of a run.
+ */
+final class BlobGuard {
+    // DiffFormatter's own cut-off, so results only change for blobs it already refused to diff
+    static final int DEFAULT_THRESHOLD = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
+
+    private final int threshold;
+    private final LongAdder binary = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+    private final LongAdder oversizedBytes = new LongAdder();
+    private final LongAdder streamed = new LongAdder();
+
+    BlobGuard(int threshold) {
+        this.threshold = threshold > 0 ? threshold : DEFAULT_THRESHOLD;
+    }
+
+    int threshold() {
+        return threshold;
+    }
+
+    // Loader of one side of a diff entry, null where DiffFormatter would diff an empty text
+    static ObjectLoader open(ObjectReader reader, FileMode mode, AbbreviatedObjectId id) throws IOException {
+        if (mode == FileMode.MISSING || mode.getObjectType() != Constants.OBJ_BLOB) return null;
+        return reader.open(id.toObjectId(), Constants.OBJ_BLOB);
+    }
+
+    // Size check from the object header, without loading the blob
+    boolean isOversized(ObjectReader reader, FileMode mode, AbbreviatedObjectId id) throws IOException {
+        if (mode == FileMode.MISSING || mode.getObjectType() != Constants.OBJ_BLOB) return false;
+        return reader.getObjectSize(id.toObjectId(), Constants.OBJ_BLOB) > threshold;
+    }
+
+    boolean isOversized(ObjectLoader loader) {
+        return loader != null && loader.getSize() > threshold;
+    }
+
+    /**
+     * Counts of an entry with a side over the limit. An added or deleted file is counted by streaming the blob,
+     * with blank lines; a binary one has no lines. A modification cannot be diffed without loading both sides:
+     * it is recorded as skipped and null is returned.
+     */
+    DiffStat countOversized(ObjectLoader oldBlob, ObjectLoader newBlob) throws IOException {
+        long oldSize = oldBlob != null ? oldBlob.getSize() : 0;
+        long newSize = newBlob != null ? newBlob.getSize() : 0;
+        if (oldSize > 0 && newSize > 0) {
+            oversized(oldSize + newSize);
+            return null;
+        }
+        boolean added = oldSize == 0;
+        BlobLineIndex.LineCount count;
+        try (InputStream in = (added ? newBlob : oldBlob).openStream()) {
+            count = BlobLineIndex.countLines(in);
+        }
+        if (count == null) {
+            binary();
+            return DiffStat.of(0, 0).withBlankLines(0, 0);
+        }
+        streamed();
+        return added
+                ? DiffStat.of(count.lines(), 0).withBlankLines(count.blankLines(), 0)
+                : DiffStat.of(0, count.lines()).withBlankLines(0, count.blankLines());
+    }
+
+    void binary() {
+        binary.increment();
+    }
+
+    void oversized(long bytes) {
+        oversized.increment();
+        oversizedBytes.add(bytes);
+    }
+
+    void streamed() {
+        streamed.increment();
+    }
+
+    SkippedBlobs snapshot() {
+        return new SkippedBlobs(binary.intValue(), oversized.intValue(), oversizedBytes.sum(), streamed.intValue());
+    }
+}
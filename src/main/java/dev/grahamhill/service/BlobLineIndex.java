@@ -0,0 +1,176 @@
+package dev.grahamhill.service;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.RawCharUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Line layout of one blob: where each line starts and which lines are blank (empty or whitespace only).
+ * Built once per blob, so counting blank lines inside an edit is a popcount over the bitmap
+ * instead of decoding every line to a String.
+ */
+final class BlobLineIndex {
+    // lineStarts[i] is the offset of line i, lineStarts[lineCount] the end of the content
+    private final int[] lineStarts;
+    private final long[] blankLines;
+    // Hash of each line with all whitespace removed, only when asked for
+    private final int[] normalizedHashes;
+
+    private BlobLineIndex(int[] lineStarts, long[] blankLines, int[] normalizedHashes) {
+        this.lineStarts = lineStarts;
+        this.blankLines = blankLines;
+        this.normalizedHashes = normalizedHashes;
+    }
+
+    static BlobLineIndex of(byte[] content) {
+        return of(content, false);
+    }
+
+    static BlobLineIndex of(byte[] content, boolean withNormalizedHashes) {
+        // Same line splitting as the RawText the diff was computed on, so edit line numbers match
+        IntList lines = new LineMap(content).lines();
+        int lineCount = lines.size() - 2;
+        int[] lineStarts = new int[lineCount + 1];
+        long[] blankLines = new long[(lineCount + 63) >>> 6];
+        for (int i = 0; i < lineCount; i++) {
+            int start = lines.get(i + 1);
+            int end = lines.get(i + 2);
+            lineStarts[i] = start;
+            if (isBlank(content, start, end)) {
+                blankLines[i >>> 6] |= 1L << i;
+            }
+        }
+        lineStarts[lineCount] = lineCount == 0 ? 0 : lines.get(lineCount + 1);
+
+        int[] normalizedHashes = null;
+        if (withNormalizedHashes) {
+            normalizedHashes = new int[lineCount];
+            for (int i = 0; i < lineCount; i++) {
+                normalizedHashes[i] = normalizedHash(content, lineStarts[i], lineStarts[i + 1]);
+            }
+        }
+        return new BlobLineIndex(lineStarts, blankLines, normalizedHashes);
+    }
+
+    // Lines that compare equal under RawTextComparator.WS_IGNORE_ALL hash the same
+    private static int normalizedHash(byte[] content, int start, int end) {
+        int hash = 5381;
+        for (int i = start; i < end; i++) {
+            byte c = content[i];
+            if (!RawCharUtil.isWhitespace(c)) {
+                hash = ((hash << 5) + hash) + (c & 0xff);
+            }
+        }
+        return hash;
+    }
+
+    // Equivalent to String.trim().isEmpty() on the decoded line: every byte above 0x20 decodes to a visible char
+    private static boolean isBlank(byte[] content, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if ((content[i] & 0xff) > ' ') return false;
+        }
+        return true;
+    }
+
+    int lineCount() {
+        return lineStarts.length - 1;
+    }
+
+    int lineStart(int line) {
+        return lineStarts[line];
+    }
+
+    // Number of blank lines in [begin, end)
+    int countBlank(int begin, int end) {
+        end = Math.min(end, lineCount());
+        if (begin >= end) return 0;
+        int firstWord = begin >>> 6;
+        int lastWord = (end - 1) >>> 6;
+        long firstMask = -1L << begin;
+        long lastMask = -1L >>> (63 - ((end - 1) & 63));
+        if (firstWord == lastWord) {
+            return Long.bitCount(blankLines[firstWord] & firstMask & lastMask);
+        }
+        int count = Long.bitCount(blankLines[firstWord] & firstMask);
+        for (int w = firstWord + 1; w < lastWord; w++) {
+            count += Long.bitCount(blankLines[w]);
+        }
+        return count + Long.bitCount(blankLines[lastWord] & lastMask);
+    }
+
+    /**
+     * Lines of an edit that only changed whitespace: deleted and added lines are paired when they are equal
+     * once whitespace is removed, and every pair counts once on each side. Both indexes need normalized hashes.
+     */
+    static int countWhitespaceOnlyPairs(BlobLineIndex a, int beginA, int endA, BlobLineIndex b, int beginB, int endB) {
+        if (a == null || b == null || beginA >= endA || beginB >= endB) return 0;
+        int[] deleted = Arrays.copyOfRange(a.normalizedHashes, beginA, Math.min(endA, a.lineCount()));
+        int[] added = Arrays.copyOfRange(b.normalizedHashes, beginB, Math.min(endB, b.lineCount()));
+        Arrays.sort(deleted);
+        Arrays.sort(added);
+        int pairs = 0;
+        for (int i = 0, j = 0; i < deleted.length && j < added.length; ) {
+            if (deleted[i] == added[j]) {
+                pairs++;
+                i++;
+                j++;
+            } else if (deleted[i] < added[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return pairs;
+    }
+
+    record LineCount(int lines, int blankLines) {}
+
+    /**
+     * Lines and blank lines of a blob read as a stream, for blobs too large to load. Splits lines like RawText;
+     * returns null when the first bytes look binary, the same sniffing RawText.load does.
+     */
+    static LineCount countLines(InputStream in) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        int head = in.readNBytes(buf, 0, Math.min(buf.length, RawText.getBufferSize()));
+        if (RawText.isBinary(buf, head, head < RawText.getBufferSize())) return null;
+
+        int lines = 0;
+        int blank = 0;
+        boolean lineOpen = false;
+        boolean visible = false;
+        for (int n = head; n > 0; n = in.read(buf)) {
+            for (int i = 0; i < n; i++) {
+                int c = buf[i] & 0xff;
+                if (c == '\n') {
+                    lines++;
+                    if (!visible) blank++;
+                    lineOpen = false;
+                    visible = false;
+                } else {
+                    lineOpen = true;
+                    if (c > ' ') visible = true;
+                }
+            }
+        }
+        // A last line without a newline still counts
+        if (lineOpen) {
+            lines++;
+            if (!visible) blank++;
+        }
+        return new LineCount(lines, blank);
+    }
+
+    private static final class LineMap extends RawText {
+        LineMap(byte[] content) {
+            super(content);
+        }
+
+        IntList lines() {
+            return lines;
+        }
+    }
+}
@@ -9,6 +9,8 @@ import java.util.prefs.Preferences;
 import dev.grahamhill.ui.MainApp;
 
 public class ConfigManager {
+    // Largest limit whose byte count still fits the int JGit takes
+    public static final int MAX_LARGE_BLOB_THRESHOLD_MB = Integer.MAX_VALUE >> 20;
 
     private final Preferences prefs;
     private final Map<String, String> envConfig = new HashMap<>();
@@ -52,4 +54,23 @@ public class ConfigManager {
     public int getIntSetting(String key, int defaultValue) {
         return prefs.getInt(key, defaultValue);
     }
+
+    // JGit pack cache sizing: small, workstation or server
+    public StorageProfile getStorageProfile() {
+        return StorageProfile.fromSetting(getSetting("storageProfile", StorageProfile.WORKSTATION.name()));
+    }
+
+    public void saveStorageProfile(StorageProfile profile) {
+        saveSetting("storageProfile", profile.name());
+    }
+
+    // Blobs above this many megabytes are line-counted by streaming or skipped instead of diffed
+    public int getLargeBlobThresholdMb() {
+        int mb = getIntSetting("largeBlobThresholdMb", BlobGuard.DEFAULT_THRESHOLD >> 20);
+        return Math.max(1, Math.min(MAX_LARGE_BLOB_THRESHOLD_MB, mb));
+    }
+
+    public void saveLargeBlobThresholdMb(int mb) {
+        saveIntSetting("largeBlobThresholdMb", mb);
+    }
 }
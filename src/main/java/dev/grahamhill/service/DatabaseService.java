@@ -1,21 +1,87 @@
 package dev.grahamhill.service;
 
+import dev.grahamhill.model.AnalysisBaseline;
+import dev.grahamhill.model.AnalysisRun;
+import dev.grahamhill.model.CommitContribution;
+import dev.grahamhill.model.CommitFileChange;
+import dev.grahamhill.model.CompanyMetric;
 import dev.grahamhill.model.ContributorStats;
+import dev.grahamhill.model.FileActivity;
+import dev.grahamhill.model.FileProvenance;
 import dev.grahamhill.model.ReportHistory;
+import dev.grahamhill.model.RepositoryAnalysis;
 
 import java.io.File;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
-public class DatabaseService {
-    private final String dbUrl;
+/**
+ * Metrics database. Every write goes through one connection inside a transaction, and reads through a second
+ * one that WAL mode lets proceed while a write is in progress. Each connection is used by one thread at a time
+ * and keeps its prepared statements for the life of the service.
+ */
+public class DatabaseService implements AutoCloseable {
+    private static final String METRICS_COLUMNS = "SELECT id, name, email, gender, commits, merges, lines_added, lines_deleted, ai_probability, files_added, files_edited, files_deleted_count, meaningful_change_score, touched_tests, generated_files_pushed, documentation_lines_added";
+
+    // kind column of the breakdown tables
+    private static final int LANGUAGES = 0;
+    private static final int DIRECTORIES = 1;
+    // Child tables of contributor_metrics, commit_metrics and commit_contributions; owner_id is the parent's id
+    private static final List<String> BREAKDOWN_TABLES = List.of("metric_breakdown", "commit_breakdown", "contribution_breakdown");
+
+    // Child rows point at id; an implicit rowid could be renumbered by VACUUM
+    private static final String COMMIT_CONTRIBUTIONS_TABLE = """
+            CREATE TABLE %s (
+                id INTEGER PRIMARY KEY,
+                repo_id TEXT,
+                commit_hash TEXT,
+                commit_time INTEGER,
+                author_name TEXT,
+                author_email TEXT,
+                is_merge INTEGER,
+                lines_added INTEGER,
+                lines_deleted INTEGER,
+                blank_lines_added INTEGER,
+                blank_lines_deleted INTEGER,
+                meaningless INTEGER,
+                generated_files_pushed INTEGER,
+                documentation_lines_added INTEGER,
+                files_added INTEGER,
+                files_edited INTEGER,
+                files_deleted INTEGER,
+                touched_tests INTEGER,
+                ai_probability REAL,
+                language_breakdown TEXT,
+                directory_breakdown TEXT,
+                UNIQUE (repo_id, commit_hash)
+            )
+            """;
+
+    private final CachedConnection writer;
+    private final CachedConnection reader;
+    // breakdown_key ids by name and file_path ids by path, only used under the writer lock
+    private final Map<String, Long> keyIds = new HashMap<>();
+    private final Map<String, Long> pathIds = new HashMap<>();
+    // Nesting of transaction() on the writer thread; inner calls join the outer transaction
+    private int transactionDepth;
+    // breakdown_key names by id, only used under the reader lock; keys are never deleted, so it only grows
+    private final Map<Long, String> keyNames = new HashMap<>();
+    private long maxKeyName;
 
     public DatabaseService() throws SQLException {
-        this.dbUrl = "jdbc:sqlite:" + getDbPath();
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             Statement stmt = conn.createStatement()) {
+        String dbUrl = "jdbc:sqlite:" + getDbPath();
+        this.writer = new CachedConnection(dbUrl);
+        this.reader = new CachedConnection(dbUrl);
+        try (Statement stmt = writer.connection.createStatement()) {
             stmt.execute("""
                 CREATE TABLE IF NOT EXISTS contributor_metrics (
                     id INTEGER PRIMARY KEY AUTOINCREMENT,
@@ -66,6 +132,20 @@ public class DatabaseService {
                 stmt.execute("ALTER TABLE contributor_metrics ADD COLUMN repo_id TEXT");
             } catch (SQLException e) { /* already exists */ }
 
+            // Every saveMetrics call is one run; reads take the newest run instead of every row ever stored
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS analysis_run (
+                    run_id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    repo_id TEXT,
+                    created_at DATETIME DEFAULT CURRENT_TIMESTAMP
+                )
+                """);
+            try {
+                stmt.execute("ALTER TABLE contributor_metrics ADD COLUMN run_id INTEGER");
+            } catch (SQLException e) { /* already exists */ }
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_analysis_run_repo ON analysis_run (repo_id, run_id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_contributor_metrics_run ON contributor_metrics (repo_id, run_id)");
+
             stmt.execute("""
                 CREATE TABLE IF NOT EXISTS commit_metrics (
                     id INTEGER PRIMARY KEY AUTOINCREMENT,
@@ -84,6 +164,398 @@ public class DatabaseService {
                     ai_probability REAL
                 )
                 """);
+            try {
+                stmt.execute("ALTER TABLE commit_metrics ADD COLUMN full_hash TEXT");
+            } catch (SQLException e) { /* already exists */ }
+            try {
+                stmt.execute("ALTER TABLE commit_metrics ADD COLUMN branch TEXT");
+            } catch (SQLException e) { /* already exists */ }
+
+            // Per-commit facts and the ref tips they were computed from, for incremental re-analysis
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS analysis_tips (
+                    repo_id TEXT,
+                    ref_name TEXT,
+                    object_id TEXT,
+                    settings_key TEXT,
+                    PRIMARY KEY (repo_id, ref_name)
+                )
+                """);
+            stmt.execute(COMMIT_CONTRIBUTIONS_TABLE.formatted("IF NOT EXISTS commit_contributions"));
+
+            // Creating commit of every path, extended as new commits arrive
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS file_provenance (
+                    repo_id TEXT,
+                    path TEXT,
+                    commit_hash TEXT,
+                    commit_time INTEGER,
+                    author_name TEXT,
+                    author_email TEXT,
+                    renamed_from TEXT,
+                    PRIMARY KEY (repo_id, path)
+                )
+                """);
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS provenance_tips (
+                    repo_id TEXT,
+                    ref_name TEXT,
+                    object_id TEXT,
+                    PRIMARY KEY (repo_id, ref_name)
+                )
+                """);
+
+            // Language and directory breakdowns, one row per entry with the name interned in breakdown_key
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS breakdown_key (
+                    key_id INTEGER PRIMARY KEY,
+                    name TEXT NOT NULL UNIQUE
+                )
+                """);
+            for (String table : BREAKDOWN_TABLES) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + table + " (owner_id INTEGER, kind INTEGER, key_id INTEGER, value INTEGER, PRIMARY KEY (owner_id, kind, key_id)) WITHOUT ROWID");
+            }
+
+            // Every file a stored commit changed; contribution_id is the commit_contributions id
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS file_path (
+                    path_id INTEGER PRIMARY KEY,
+                    path TEXT NOT NULL UNIQUE
+                )
+                """);
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS file_changes (
+                    contribution_id INTEGER,
+                    path_id INTEGER,
+                    category TEXT,
+                    change_type TEXT,
+                    insertions INTEGER,
+                    deletions INTEGER,
+                    PRIMARY KEY (contribution_id, path_id)
+                ) WITHOUT ROWID
+                """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_file_changes_path ON file_changes (path_id)");
+        }
+        assignLegacyRuns();
+        migrate();
+    }
+
+    // Data migrations run once per database, in order; PRAGMA user_version counts the ones already done
+    private void migrate() throws SQLException {
+        transaction(conn -> {
+            int version;
+            try (ResultSet rs = conn.prepare("PRAGMA user_version").executeQuery()) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+            if (version < 1) {
+                migrateTextBreakdowns(conn, "contributor_metrics", "id", "metric_breakdown", true);
+                migrateTextBreakdowns(conn, "commit_metrics", "id", "commit_breakdown", false);
+                // rowid: the explicit id only arrives with step 3, and stays equal to it
+                migrateTextBreakdowns(conn, "commit_contributions", "rowid", "contribution_breakdown", true);
+            }
+            if (version < 2) {
+                deduplicateCommits(conn);
+            }
+            if (version < 3) {
+                addContributionIds(conn);
+            }
+            try (Statement stmt = conn.connection.createStatement()) {
+                stmt.execute("PRAGMA user_version = 3");
+            }
+        });
+    }
+
+    /**
+     * Every analysis used to insert its commits again. Keeps the newest row of each abbreviated hash, which stands
+     * in for the full hash until a save sees that commit again, and makes the hash unique per repository.
+     */
+    private static void deduplicateCommits(CachedConnection conn) throws SQLException {
+        String duplicates = "SELECT id FROM commit_metrics WHERE full_hash IS NULL AND id NOT IN (SELECT MAX(id) FROM commit_metrics WHERE full_hash IS NULL GROUP BY repo_id, commit_hash)";
+        conn.prepare("DELETE FROM commit_breakdown WHERE owner_id IN (" + duplicates + ")").executeUpdate();
+        conn.prepare("DELETE FROM commit_metrics WHERE id IN (" + duplicates + ")").executeUpdate();
+        conn.prepare("UPDATE commit_metrics SET full_hash = commit_hash WHERE full_hash IS NULL").executeUpdate();
+        conn.prepare("CREATE UNIQUE INDEX IF NOT EXISTS idx_commit_metrics_hash ON commit_metrics (repo_id, full_hash)").executeUpdate();
+    }
+
+    /**
+     * commit_contributions used to be keyed by (repo_id, commit_hash) alone, with child rows pointing at its implicit
+     * rowid. Rebuilds it with an explicit id that takes over each row's rowid, so the child rows stay attached.
+     */
+    private static void addContributionIds(CachedConnection conn) throws SQLException {
+        try (ResultSet rs = conn.prepare("SELECT 1 FROM pragma_table_info('commit_contributions') WHERE name = 'id'").executeQuery()) {
+            if (rs.next()) return;
+        }
+        String columns = "repo_id, commit_hash, commit_time, author_name, author_email, is_merge, lines_added, lines_deleted, blank_lines_added, blank_lines_deleted, meaningless, generated_files_pushed, documentation_lines_added, files_added, files_edited, files_deleted, touched_tests, ai_probability, language_breakdown, directory_breakdown";
+        try (Statement stmt = conn.connection.createStatement()) {
+            stmt.execute(COMMIT_CONTRIBUTIONS_TABLE.formatted("commit_contributions_new"));
+            stmt.execute("INSERT INTO commit_contributions_new (id, " + columns + ") SELECT rowid, " + columns + " FROM commit_contributions");
+            stmt.execute("DROP TABLE commit_contributions");
+            stmt.execute("ALTER TABLE commit_contributions_new RENAME TO commit_contributions");
+        }
+    }
+
+    /**
+     * Moves breakdowns stored as Map.toString() text into the breakdown tables.
+     * Names containing ", " or "=" were already split wrongly when the text was written and stay that way.
+     */
+
+    private void migrateTextBreakdowns(CachedConnection conn, String table, String idColumn, String breakdownTable, boolean withDirectories) throws SQLException {
+        String columns = withDirectories ? "language_breakdown, directory_breakdown" : "language_breakdown";
+        PreparedStatement parts = conn.prepare("INSERT OR REPLACE INTO " + breakdownTable + " (owner_id, kind, key_id, value) VALUES (?, ?, ?, ?)");
+        try (ResultSet rs = conn.prepare("SELECT " + idColumn + " AS owner_id, " + columns + " FROM " + table + " WHERE language_breakdown IS NOT NULL").executeQuery()) {
+            while (rs.next()) {
+                long ownerId = rs.getLong("owner_id");
+                addBreakdown(conn, parts, ownerId, LANGUAGES, parseLegacyBreakdown(rs.getString("language_breakdown")));
+                if (withDirectories) {
+                    addBreakdown(conn, parts, ownerId, DIRECTORIES, parseLegacyBreakdown(rs.getString("directory_breakdown")));
+                }
+            }
+        }
+        parts.executeBatch();
+        String clear = withDirectories ? "language_breakdown = NULL, directory_breakdown = NULL" : "language_breakdown = NULL";
+        conn.prepare("UPDATE " + table + " SET " + clear).executeUpdate();
+    }
+
+    // Adds one row per entry to the batch of an INSERT INTO <breakdown table> statement
+    private void addBreakdown(CachedConnection conn, PreparedStatement parts, long ownerId, int kind, Map<String, Integer> breakdown) throws SQLException {
+        for (Map.Entry<String, Integer> entry : breakdown.entrySet()) {
+            parts.setLong(1, ownerId);
+            parts.setInt(2, kind);
+            parts.setLong(3, keyId(conn, entry.getKey()));
+            parts.setInt(4, entry.getValue());
+            parts.addBatch();
+        }
+    }
+
+    private long keyId(CachedConnection conn, String name) throws SQLException {
+        Long id = keyIds.get(name);
+        if (id != null) return id;
+        // The no-op update makes RETURNING give the existing id too
+        PreparedStatement pstmt = conn.prepare("INSERT INTO breakdown_key (name) VALUES (?) ON CONFLICT (name) DO UPDATE SET name = excluded.name RETURNING key_id");
+        pstmt.setString(1, name);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            id = rs.getLong(1);
+        }
+        keyIds.put(name, id);
+        return id;
+    }
+
+    private long pathId(CachedConnection conn, String path) throws SQLException {
+        Long id = pathIds.get(path);
+        if (id != null) return id;
+        PreparedStatement pstmt = conn.prepare("INSERT INTO file_path (path) VALUES (?) ON CONFLICT (path) DO UPDATE SET path = excluded.path RETURNING path_id");
+        pstmt.setString(1, path);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            id = rs.getLong(1);
+        }
+        pathIds.put(path, id);
+        return id;
+    }
+
+    // Highest id in use, so a batch can insert parents with ids its breakdown rows already point to
+    private static long maxId(CachedConnection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.prepare("SELECT COALESCE(MAX(id), 0) FROM " + table).executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static final String BREAKDOWN_SELECT = "SELECT owner_id, kind, key_id, value FROM %s WHERE owner_id IN ";
+
+    // Reads breakdown rows with names from keyNames, which is first brought up to date with the snapshot
+    private Breakdowns readBreakdowns(CachedConnection conn, PreparedStatement pstmt) throws SQLException {
+        PreparedStatement names = conn.prepare("SELECT key_id, name FROM breakdown_key WHERE key_id > ?");
+        names.setLong(1, maxKeyName);
+        try (ResultSet rs = names.executeQuery()) {
+            while (rs.next()) {
+                long id = rs.getLong("key_id");
+                keyNames.put(id, rs.getString("name"));
+                maxKeyName = Math.max(maxKeyName, id);
+            }
+        }
+        return Breakdowns.read(pstmt, keyNames);
+    }
+
+    // Breakdowns of a set of parent rows, read before the rows themselves so the records can be built in one pass
+    private static final class Breakdowns {
+        private final Map<Long, Map<String, Integer>> languages = new HashMap<>();
+        private final Map<Long, Map<String, Integer>> directories = new HashMap<>();
+
+        static Breakdowns read(PreparedStatement pstmt, Map<Long, String> keyNames) throws SQLException {
+            Breakdowns breakdowns = new Breakdowns();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Map<Long, Map<String, Integer>> byOwner = rs.getInt("kind") == DIRECTORIES ? breakdowns.directories : breakdowns.languages;
+                    byOwner.computeIfAbsent(rs.getLong("owner_id"), id -> new HashMap<>()).put(keyNames.get(rs.getLong("key_id")), rs.getInt("value"));
+                }
+            }
+            return breakdowns;
+        }
+
+        Map<String, Integer> languages(long ownerId) {
+            Map<String, Integer> breakdown = languages.get(ownerId);
+            return breakdown != null ? breakdown : new HashMap<>();
+        }
+
+        Map<String, Integer> directories(long ownerId) {
+            Map<String, Integer> breakdown = directories.get(ownerId);
+            return breakdown != null ? breakdown : new HashMap<>();
+        }
+    }
+
+    /**
+     * Rows saved before runs existed get one. A save wrote each contributor once and in a single block,
+     * so consecutive rows of a repository belong to the same run until a contributor name repeats.
+     */
+    private void assignLegacyRuns() throws SQLException {
+        transaction(conn -> {
+            List<Object[]> legacy = new ArrayList<>();
+            try (ResultSet rs = conn.prepare("SELECT id, repo_id, name, timestamp FROM contributor_metrics WHERE run_id IS NULL ORDER BY repo_id, id").executeQuery()) {
+                while (rs.next()) {
+                    legacy.add(new Object[] { rs.getLong("id"), rs.getString("repo_id"), rs.getString("name"), rs.getString("timestamp") });
+                }
+            }
+            if (legacy.isEmpty()) return;
+
+            PreparedStatement update = conn.prepare("UPDATE contributor_metrics SET run_id = ? WHERE id = ?");
+            String repoId = null;
+            Set<String> names = new HashSet<>();
+            long runId = 0;
+            for (Object[] row : legacy) {
+                String rowRepo = (String) row[1];
+                if (runId == 0 || !Objects.equals(rowRepo, repoId) || !names.add((String) row[2])) {
+                    repoId = rowRepo;
+                    names.clear();
+                    names.add((String) row[2]);
+                    runId = insertRun(conn, repoId, (String) row[3]);
+                }
+                update.setLong(1, runId);
+                update.setLong(2, (Long) row[0]);
+                update.addBatch();
+            }
+            update.executeBatch();
+        });
+    }
+
+    // createdAt null takes the current time
+    private static long insertRun(CachedConnection conn, String repoId, String createdAt) throws SQLException {
+        PreparedStatement pstmt = conn.prepare("INSERT INTO analysis_run (repo_id, created_at) VALUES (?, COALESCE(?, CURRENT_TIMESTAMP)) RETURNING run_id");
+        pstmt.setString(1, repoId);
+        pstmt.setString(2, createdAt);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * A connection and the statements prepared on it. WAL keeps readers off the writer's lock, and with WAL
+     * synchronous=NORMAL only syncs at checkpoints; a crash can lose the last transactions, never corrupt the file.
+     */
+    private static final class CachedConnection {
+        final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        CachedConnection(String url) throws SQLException {
+            connection = DriverManager.getConnection(url);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=NORMAL");
+                // A second instance of the app, or a checkpoint on the other connection, is waited for instead of failing
+                stmt.execute("PRAGMA busy_timeout=5000");
+            }
+        }
+
+        // Callers do not close the statement; it is reused by the next call with the same SQL
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement pstmt = statements.get(sql);
+            if (pstmt == null) {
+                pstmt = connection.prepareStatement(sql);
+                statements.put(sql, pstmt);
+            } else {
+                pstmt.clearParameters();
+                pstmt.clearBatch();
+            }
+            return pstmt;
+        }
+
+        void close() throws SQLException {
+            for (PreparedStatement pstmt : statements.values()) {
+                pstmt.close();
+            }
+            statements.clear();
+            connection.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork {
+        void run(CachedConnection conn) throws SQLException;
+    }
+
+    // Runs the work in one transaction on the write connection, rolled back if any statement fails
+    private void transaction(SqlWork work) throws SQLException {
+        synchronized (writer) {
+            if (transactionDepth > 0) {
+                work.run(writer);
+                return;
+            }
+            Connection conn = writer.connection;
+            conn.setAutoCommit(false);
+            transactionDepth++;
+            try {
+                work.run(writer);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                // Ids interned by the failed transaction no longer exist
+                keyIds.clear();
+                pathIds.clear();
+                throw e;
+            } finally {
+                transactionDepth--;
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Writes {
+        void run() throws SQLException;
+    }
+
+    // Runs every save the block makes in a single transaction; if one fails, none of them is kept
+    public void inTransaction(Writes writes) throws SQLException {
+        transaction(conn -> writes.run());
+    }
+
+    @FunctionalInterface
+    private interface SqlRead<T> {
+        T run(CachedConnection conn) throws SQLException;
+    }
+
+    // Runs the queries on one snapshot of the read connection, so rows and their breakdowns match
+    private <T> T read(SqlRead<T> work) throws SQLException {
+        synchronized (reader) {
+            Connection conn = reader.connection;
+            conn.setAutoCommit(false);
+            try {
+                return work.run(reader);
+            } finally {
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        synchronized (reader) {
+            reader.close();
+        }
+        synchronized (writer) {
+            writer.close();
         }
     }
 
@@ -110,18 +582,18 @@ public class DatabaseService {
 
     public void saveGlobalSetting(String key, String value) throws SQLException {
         String sql = "INSERT OR REPLACE INTO global_settings (key, value) VALUES (?, ?)";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        transaction(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setString(1, key);
             pstmt.setString(2, value);
             pstmt.executeUpdate();
-        }
+        });
     }
 
     public String getGlobalSetting(String key) throws SQLException {
         String sql = "SELECT value FROM global_settings WHERE key = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        synchronized (reader) {
+            PreparedStatement pstmt = reader.prepare(sql);
             pstmt.setString(1, key);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
@@ -132,64 +604,163 @@ public class DatabaseService {
         return null;
     }
 
-    public void saveMetrics(String repoId, List<ContributorStats> stats) throws SQLException {
-        String sql = "INSERT INTO contributor_metrics (repo_id, name, email, gender, commits, merges, lines_added, lines_deleted, language_breakdown, directory_breakdown, ai_probability, files_added, files_edited, files_deleted_count, meaningful_change_score, touched_tests, generated_files_pushed, documentation_lines_added) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            for (ContributorStats stat : stats) {
-                pstmt.setString(1, repoId);
-                pstmt.setString(2, stat.name());
-                pstmt.setString(3, stat.email());
-                pstmt.setString(4, stat.gender());
-                pstmt.setInt(5, stat.commitCount());
-                pstmt.setInt(6, stat.mergeCount());
-                pstmt.setInt(7, stat.linesAdded());
-                pstmt.setInt(8, stat.linesDeleted());
-                pstmt.setString(9, stat.languageBreakdown().toString());
-                pstmt.setString(10, stat.directoryBreakdown().toString());
-                pstmt.setDouble(11, stat.averageAiProbability());
-                pstmt.setInt(12, stat.filesAdded());
-                pstmt.setInt(13, stat.filesEdited());
-                pstmt.setInt(14, stat.filesDeletedCount());
-                pstmt.setDouble(15, stat.meaningfulChangeScore());
-                pstmt.setInt(16, stat.touchedTests() ? 1 : 0);
-                pstmt.setInt(17, stat.generatedFilesPushed());
-                pstmt.setInt(18, stat.documentationLinesAdded());
-                pstmt.addBatch();
+    // Stores the stats as a new run and returns its id
+    public long saveMetrics(String repoId, List<ContributorStats> stats) throws SQLException {
+        long[] runId = new long[1];
+        transaction(conn -> {
+            runId[0] = insertRun(conn, repoId, null);
+            insertMetrics(conn, repoId, runId[0], stats);
+        });
+        return runId[0];
+    }
+
+    // Replaces the stats of the newest run, for scores added to an analysis after it was saved
+    public void updateLatestMetrics(String repoId, List<ContributorStats> stats) throws SQLException {
+        transaction(conn -> {
+            long runId = latestRunId(conn, repoId);
+            if (runId == 0) {
+                runId = insertRun(conn, repoId, null);
+            } else {
+                PreparedStatement deleteParts = conn.prepare("DELETE FROM metric_breakdown WHERE owner_id IN (SELECT id FROM contributor_metrics WHERE repo_id = ? AND run_id = ?)");
+                deleteParts.setString(1, repoId);
+                deleteParts.setLong(2, runId);
+                deleteParts.executeUpdate();
+                PreparedStatement delete = conn.prepare("DELETE FROM contributor_metrics WHERE repo_id = ? AND run_id = ?");
+                delete.setString(1, repoId);
+                delete.setLong(2, runId);
+                delete.executeUpdate();
             }
-            pstmt.executeBatch();
+            insertMetrics(conn, repoId, runId, stats);
+        });
+    }
+
+    // 0 when the repository has no run yet
+    private static long latestRunId(CachedConnection conn, String repoId) throws SQLException {
+        PreparedStatement pstmt = conn.prepare("SELECT MAX(run_id) FROM analysis_run WHERE repo_id = ?");
+        pstmt.setString(1, repoId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
         }
     }
 
+    private void insertMetrics(CachedConnection conn, String repoId, long runId, List<ContributorStats> stats) throws SQLException {
+        String sql = "INSERT INTO contributor_metrics (id, run_id, repo_id, name, email, gender, commits, merges, lines_added, lines_deleted, ai_probability, files_added, files_edited, files_deleted_count, meaningful_change_score, touched_tests, generated_files_pushed, documentation_lines_added) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        PreparedStatement pstmt = conn.prepare(sql);
+        PreparedStatement parts = conn.prepare("INSERT INTO metric_breakdown (owner_id, kind, key_id, value) VALUES (?, ?, ?, ?)");
+        long id = maxId(conn, "contributor_metrics");
+        for (ContributorStats stat : stats) {
+            id++;
+            pstmt.setLong(1, id);
+            pstmt.setLong(2, runId);
+            pstmt.setString(3, repoId);
+            pstmt.setString(4, stat.name());
+            pstmt.setString(5, stat.email());
+            pstmt.setString(6, stat.gender());
+            pstmt.setInt(7, stat.commitCount());
+            pstmt.setInt(8, stat.mergeCount());
+            pstmt.setInt(9, stat.linesAdded());
+            pstmt.setInt(10, stat.linesDeleted());
+            pstmt.setDouble(11, stat.averageAiProbability());
+            pstmt.setInt(12, stat.filesAdded());
+            pstmt.setInt(13, stat.filesEdited());
+            pstmt.setInt(14, stat.filesDeletedCount());
+            pstmt.setDouble(15, stat.meaningfulChangeScore());
+            pstmt.setInt(16, stat.touchedTests() ? 1 : 0);
+            pstmt.setInt(17, stat.generatedFilesPushed());
+            pstmt.setInt(18, stat.documentationLinesAdded());
+            pstmt.addBatch();
+            addBreakdown(conn, parts, id, LANGUAGES, stat.languageBreakdown());
+            addBreakdown(conn, parts, id, DIRECTORIES, stat.directoryBreakdown());
+        }
+        pstmt.executeBatch();
+        parts.executeBatch();
+    }
+
+    // Contributors of the newest run only; older runs stay available through getAnalysisRuns and getMetricsForRun
     public List<ContributorStats> getLatestMetrics(String repoId) throws SQLException {
-        List<ContributorStats> stats = new ArrayList<>();
-        // This is a simplified version, just getting the last set of entries
-        String sql = "SELECT name, email, gender, commits, merges, lines_added, lines_deleted, language_breakdown, directory_breakdown, ai_probability, files_added, files_edited, files_deleted_count, meaningful_change_score, touched_tests, generated_files_pushed, documentation_lines_added FROM contributor_metrics WHERE repo_id = ? ORDER BY timestamp DESC";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        return read(conn -> metricsForRun(conn, repoId, latestRunId(conn, repoId)));
+    }
+
+    public List<ContributorStats> getMetricsForRun(AnalysisRun run) throws SQLException {
+        return read(conn -> metricsForRun(conn, run.repoId(), run.runId()));
+    }
+
+    // Newest first
+    public List<AnalysisRun> getAnalysisRuns(String repoId) throws SQLException {
+        List<AnalysisRun> runs = new ArrayList<>();
+        String sql = "SELECT run_id, repo_id, created_at FROM analysis_run WHERE repo_id = ? ORDER BY run_id DESC";
+        synchronized (reader) {
+            PreparedStatement pstmt = reader.prepare(sql);
             pstmt.setString(1, repoId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    stats.add(new ContributorStats(
-                            rs.getString("name"),
-                            rs.getString("email"),
-                            rs.getString("gender"),
-                            rs.getInt("commits"),
-                            rs.getInt("merges"),
-                            rs.getInt("lines_added"),
-                            rs.getInt("lines_deleted"),
-                            parseLanguageBreakdown(rs.getString("language_breakdown")),
-                            rs.getDouble("ai_probability"),
-                            rs.getInt("files_added"),
-                            rs.getInt("files_edited"),
-                            rs.getInt("files_deleted_count"),
-                            rs.getDouble("meaningful_change_score"),
-                            rs.getInt("touched_tests") == 1,
-                            rs.getInt("generated_files_pushed"),
-                            rs.getInt("documentation_lines_added"),
-                            parseLanguageBreakdown(rs.getString("directory_breakdown"))
-                    ));
+                    runs.add(new AnalysisRun(rs.getLong("run_id"), rs.getString("repo_id"), rs.getString("created_at")));
+                }
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Company-mode summary of the newest run, summed by SQL without building the contributors.
+     * Returns null when the repository has no stored run.
+     */
+    public CompanyMetric getLatestCompanyMetric(String repoId) throws SQLException {
+        return read(conn -> {
+            long runId = latestRunId(conn, repoId);
+            PreparedStatement totals = conn.prepare("SELECT COUNT(*), SUM(commits), SUM(lines_added), SUM(lines_deleted), AVG(meaningful_change_score) FROM contributor_metrics WHERE repo_id = ? AND run_id = ?");
+            totals.setString(1, repoId);
+            totals.setLong(2, runId);
+            try (ResultSet rs = totals.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) == 0) return null;
+                Map<String, Integer> languages = new HashMap<>();
+                String primaryLanguage = "N/A";
+                PreparedStatement parts = conn.prepare("SELECT k.name, SUM(b.value) AS total FROM metric_breakdown b JOIN breakdown_key k ON k.key_id = b.key_id WHERE b.kind = " + LANGUAGES + " AND b.owner_id IN (SELECT id FROM contributor_metrics WHERE repo_id = ? AND run_id = ?) GROUP BY b.key_id ORDER BY total DESC");
+                parts.setString(1, repoId);
+                parts.setLong(2, runId);
+                try (ResultSet lrs = parts.executeQuery()) {
+                    while (lrs.next()) {
+                        if (languages.isEmpty()) primaryLanguage = lrs.getString("name");
+                        languages.put(lrs.getString("name"), lrs.getInt("total"));
+                    }
                 }
+                return new CompanyMetric(repoId, rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getDouble(5), primaryLanguage, languages);
+            }
+        });
+    }
+
+    private List<ContributorStats> metricsForRun(CachedConnection conn, String repoId, long runId) throws SQLException {
+        PreparedStatement parts = conn.prepare(BREAKDOWN_SELECT.formatted("metric_breakdown") + "(SELECT id FROM contributor_metrics WHERE repo_id = ? AND run_id = ?)");
+        parts.setString(1, repoId);
+        parts.setLong(2, runId);
+        Breakdowns breakdowns = readBreakdowns(conn, parts);
+
+        List<ContributorStats> stats = new ArrayList<>();
+        PreparedStatement pstmt = conn.prepare(METRICS_COLUMNS + " FROM contributor_metrics WHERE repo_id = ? AND run_id = ? ORDER BY id");
+        pstmt.setString(1, repoId);
+        pstmt.setLong(2, runId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                long id = rs.getLong("id");
+                stats.add(new ContributorStats(
+                        rs.getString("name"),
+                        rs.getString("email"),
+                        rs.getString("gender"),
+                        rs.getInt("commits"),
+                        rs.getInt("merges"),
+                        rs.getInt("lines_added"),
+                        rs.getInt("lines_deleted"),
+                        breakdowns.languages(id),
+                        rs.getDouble("ai_probability"),
+                        rs.getInt("files_added"),
+                        rs.getInt("files_edited"),
+                        rs.getInt("files_deleted_count"),
+                        rs.getDouble("meaningful_change_score"),
+                        rs.getInt("touched_tests") == 1,
+                        rs.getInt("generated_files_pushed"),
+                        rs.getInt("documentation_lines_added"),
+                        breakdowns.directories(id)
+                ));
             }
         }
         return stats;
@@ -197,12 +768,12 @@ public class DatabaseService {
 
     public List<String> getAllRepoIds() throws SQLException {
         List<String> repoIds = new ArrayList<>();
-        String sql = "SELECT DISTINCT repo_id FROM contributor_metrics";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                repoIds.add(rs.getString("repo_id"));
+        String sql = "SELECT DISTINCT repo_id FROM analysis_run";
+        synchronized (reader) {
+            try (ResultSet rs = reader.prepare(sql).executeQuery()) {
+                while (rs.next()) {
+                    repoIds.add(rs.getString("repo_id"));
+                }
             }
         }
         return repoIds;
@@ -211,8 +782,8 @@ public class DatabaseService {
     public List<ReportHistory> getLatestReportHistory(String repoId, int limit) throws SQLException {
         List<ReportHistory> history = new ArrayList<>();
         String sql = "SELECT id, repo_id, version, date, author, description, earliest_commit FROM report_history WHERE repo_id = ? ORDER BY id DESC LIMIT ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        synchronized (reader) {
+            PreparedStatement pstmt = reader.prepare(sql);
             pstmt.setString(1, repoId);
             pstmt.setInt(2, limit);
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -234,8 +805,8 @@ public class DatabaseService {
 
     public ReportHistory getLatestReportForCommit(String repoId, String earliestCommit) throws SQLException {
         String sql = "SELECT id, repo_id, version, date, author, description, earliest_commit FROM report_history WHERE repo_id = ? AND earliest_commit = ? ORDER BY id DESC LIMIT 1";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        synchronized (reader) {
+            PreparedStatement pstmt = reader.prepare(sql);
             pstmt.setString(1, repoId);
             pstmt.setString(2, earliestCommit);
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -257,8 +828,8 @@ public class DatabaseService {
 
     public void saveReportHistory(ReportHistory history) throws SQLException {
         String sql = "INSERT INTO report_history (repo_id, version, date, author, description, earliest_commit) VALUES (?, ?, ?, ?, ?, ?)";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        transaction(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setString(1, history.repoId());
             pstmt.setString(2, history.version());
             pstmt.setString(3, history.date().toString());
@@ -266,38 +837,114 @@ public class DatabaseService {
             pstmt.setString(5, history.description());
             pstmt.setString(6, history.earliestCommit());
             pstmt.executeUpdate();
-        }
+        });
     }
 
+    /**
+     * Upserts the commits by repository and full hash. A commit already stored is only rewritten when it was
+     * counted differently this time, so re-analyzing a repository writes just the new commits.
+     */
     public void saveCommits(String repoId, List<dev.grahamhill.model.CommitInfo> commits) throws SQLException {
-        String sql = "INSERT INTO commit_metrics (repo_id, commit_hash, author_name, message, timestamp, lines_added, lines_deleted, files_added, files_edited, files_deleted, is_merge, language_breakdown, ai_probability) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            for (dev.grahamhill.model.CommitInfo ci : commits) {
-                pstmt.setString(1, repoId);
-                pstmt.setString(2, ci.id());
-                pstmt.setString(3, ci.authorName());
-                pstmt.setString(4, ci.message());
-                pstmt.setString(5, ci.timestamp().toString());
-                pstmt.setInt(6, ci.linesAdded());
-                pstmt.setInt(7, ci.linesDeleted());
-                pstmt.setInt(8, ci.filesAdded());
-                pstmt.setInt(9, ci.filesEdited());
-                pstmt.setInt(10, ci.filesDeleted());
-                pstmt.setInt(11, ci.isMerge() ? 1 : 0);
-                pstmt.setString(12, ci.languageBreakdown().toString());
-                pstmt.setDouble(13, ci.aiProbability());
+        String sql = """
+            INSERT INTO commit_metrics (id, repo_id, commit_hash, full_hash, branch, author_name, message, timestamp, lines_added, lines_deleted, files_added, files_edited, files_deleted, is_merge, ai_probability)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (repo_id, full_hash) DO UPDATE SET
+                commit_hash = excluded.commit_hash, branch = excluded.branch, author_name = excluded.author_name, message = excluded.message,
+                timestamp = excluded.timestamp, lines_added = excluded.lines_added, lines_deleted = excluded.lines_deleted,
+                files_added = excluded.files_added, files_edited = excluded.files_edited, files_deleted = excluded.files_deleted,
+                is_merge = excluded.is_merge, ai_probability = excluded.ai_probability
+            WHERE (commit_hash, branch, author_name, message, timestamp, lines_added, lines_deleted, files_added, files_edited, files_deleted, is_merge, ai_probability)
+                IS NOT (excluded.commit_hash, excluded.branch, excluded.author_name, excluded.message, excluded.timestamp, excluded.lines_added, excluded.lines_deleted,
+                        excluded.files_added, excluded.files_edited, excluded.files_deleted, excluded.is_merge, excluded.ai_probability)
+            """;
+        // The same commit listed twice is stored once, as its last entry
+        Map<String, dev.grahamhill.model.CommitInfo> unique = new LinkedHashMap<>();
+        for (dev.grahamhill.model.CommitInfo ci : commits) {
+            unique.put(ci.commitHash(), ci);
+        }
+        transaction(conn -> {
+            adoptLegacyCommits(conn, repoId, unique.values());
+            Map<String, Long> stored = new HashMap<>();
+            PreparedStatement ids = conn.prepare("SELECT id, full_hash FROM commit_metrics WHERE repo_id = ?");
+            ids.setString(1, repoId);
+            try (ResultSet rs = ids.executeQuery()) {
+                while (rs.next()) {
+                    stored.put(rs.getString("full_hash"), rs.getLong("id"));
+                }
+            }
+
+            PreparedStatement pstmt = conn.prepare(sql);
+            List<Long> rowIds = new ArrayList<>();
+            long nextId = maxId(conn, "commit_metrics");
+            for (dev.grahamhill.model.CommitInfo ci : unique.values()) {
+                Long id = stored.get(ci.commitHash());
+                rowIds.add(id != null ? id : ++nextId);
+                pstmt.setLong(1, rowIds.get(rowIds.size() - 1));
+                pstmt.setString(2, repoId);
+                pstmt.setString(3, ci.id());
+                pstmt.setString(4, ci.commitHash());
+                pstmt.setString(5, ci.branch());
+                pstmt.setString(6, ci.authorName());
+                pstmt.setString(7, ci.message());
+                pstmt.setString(8, ci.timestamp().toString());
+                pstmt.setInt(9, ci.linesAdded());
+                pstmt.setInt(10, ci.linesDeleted());
+                pstmt.setInt(11, ci.filesAdded());
+                pstmt.setInt(12, ci.filesEdited());
+                pstmt.setInt(13, ci.filesDeleted());
+                pstmt.setInt(14, ci.isMerge() ? 1 : 0);
+                pstmt.setDouble(15, ci.aiProbability());
                 pstmt.addBatch();
             }
-            pstmt.executeBatch();
+            int[] changed = pstmt.executeBatch();
+
+            // Breakdowns only for the rows the upsert inserted or rewrote
+            PreparedStatement deleteParts = conn.prepare("DELETE FROM commit_breakdown WHERE owner_id = ?");
+            PreparedStatement parts = conn.prepare("INSERT INTO commit_breakdown (owner_id, kind, key_id, value) VALUES (?, ?, ?, ?)");
+            int i = 0;
+            for (dev.grahamhill.model.CommitInfo ci : unique.values()) {
+                long id = rowIds.get(i);
+                if (changed[i++] == 0) continue;
+                if (stored.containsKey(ci.commitHash())) {
+                    deleteParts.setLong(1, id);
+                    deleteParts.addBatch();
+                }
+                addBreakdown(conn, parts, id, LANGUAGES, ci.languageBreakdown());
+            }
+            deleteParts.executeBatch();
+            parts.executeBatch();
+        });
+    }
+
+    // Rows stored before full hashes were kept only have the abbreviation; they take the full hash of the commit it matches
+    private static void adoptLegacyCommits(CachedConnection conn, String repoId, Collection<dev.grahamhill.model.CommitInfo> commits) throws SQLException {
+        PreparedStatement legacy = conn.prepare("SELECT EXISTS (SELECT 1 FROM commit_metrics WHERE repo_id = ? AND full_hash = commit_hash)");
+        legacy.setString(1, repoId);
+        try (ResultSet rs = legacy.executeQuery()) {
+            if (!rs.next() || !rs.getBoolean(1)) return;
         }
+        PreparedStatement adopt = conn.prepare("UPDATE commit_metrics SET full_hash = ? WHERE repo_id = ? AND full_hash = ? AND NOT EXISTS (SELECT 1 FROM commit_metrics WHERE repo_id = ? AND full_hash = ?)");
+        for (dev.grahamhill.model.CommitInfo ci : commits) {
+            if (ci.commitHash().equals(ci.id())) continue;
+            adopt.setString(1, ci.commitHash());
+            adopt.setString(2, repoId);
+            adopt.setString(3, ci.id());
+            adopt.setString(4, repoId);
+            adopt.setString(5, ci.commitHash());
+            adopt.addBatch();
+        }
+        adopt.executeBatch();
     }
 
     public List<dev.grahamhill.model.CommitInfo> getLatestCommits(String repoId) throws SQLException {
-        List<dev.grahamhill.model.CommitInfo> commits = new ArrayList<>();
-        String sql = "SELECT commit_hash, author_name, message, timestamp, lines_added, lines_deleted, files_added, files_edited, files_deleted, is_merge, language_breakdown, ai_probability FROM commit_metrics WHERE repo_id = ? ORDER BY timestamp DESC";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        String sql = "SELECT id, commit_hash, full_hash, branch, author_name, message, timestamp, lines_added, lines_deleted, files_added, files_edited, files_deleted, is_merge, ai_probability FROM commit_metrics WHERE repo_id = ? ORDER BY timestamp DESC";
+        return read(conn -> {
+            PreparedStatement parts = conn.prepare(BREAKDOWN_SELECT.formatted("commit_breakdown") + "(SELECT id FROM commit_metrics WHERE repo_id = ?)");
+            parts.setString(1, repoId);
+            Breakdowns breakdowns = readBreakdowns(conn, parts);
+
+            List<dev.grahamhill.model.CommitInfo> commits = new ArrayList<>();
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setString(1, repoId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
@@ -306,7 +953,7 @@ public class DatabaseService {
                             rs.getString("author_name"),
                             rs.getString("message"),
                             java.time.LocalDateTime.parse(rs.getString("timestamp")),
-                            parseLanguageBreakdown(rs.getString("language_breakdown")),
+                            breakdowns.languages(rs.getLong("id")),
                             rs.getDouble("ai_probability"),
                             rs.getInt("files_added"),
                             rs.getInt("files_edited"),
@@ -314,15 +961,303 @@ public class DatabaseService {
                             rs.getInt("lines_added"),
                             rs.getInt("lines_deleted"),
                             rs.getInt("is_merge") == 1,
-                            "" // branch not stored
+                            rs.getString("branch") != null ? rs.getString("branch") : "",
+                            rs.getString("full_hash")
+                    ));
+                }
+            }
+            return commits;
+        });
+    }
+
+    // Returns null when the repository has never been analyzed, so the caller runs a full analysis
+    public AnalysisBaseline loadAnalysisBaseline(String repoId) throws SQLException {
+        return read(conn -> {
+            Map<String, String> refTips = new HashMap<>();
+            String settingsKey = null;
+            PreparedStatement tips = conn.prepare("SELECT ref_name, object_id, settings_key FROM analysis_tips WHERE repo_id = ?");
+            tips.setString(1, repoId);
+            try (ResultSet rs = tips.executeQuery()) {
+                while (rs.next()) {
+                    refTips.put(rs.getString("ref_name"), rs.getString("object_id"));
+                    settingsKey = rs.getString("settings_key");
+                }
+            }
+            if (refTips.isEmpty()) return null;
+
+            PreparedStatement parts = conn.prepare(BREAKDOWN_SELECT.formatted("contribution_breakdown") + "(SELECT id FROM commit_contributions WHERE repo_id = ?)");
+            parts.setString(1, repoId);
+            Breakdowns breakdowns = readBreakdowns(conn, parts);
+
+            List<CommitContribution> contributions = new ArrayList<>();
+            String sql = "SELECT id, commit_hash, commit_time, author_name, author_email, is_merge, lines_added, lines_deleted, blank_lines_added, blank_lines_deleted, meaningless, generated_files_pushed, documentation_lines_added, files_added, files_edited, files_deleted, touched_tests, ai_probability FROM commit_contributions WHERE repo_id = ? ORDER BY commit_time DESC";
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setString(1, repoId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong("id");
+                    contributions.add(new CommitContribution(
+                            rs.getString("commit_hash"),
+                            rs.getLong("commit_time"),
+                            rs.getString("author_name"),
+                            rs.getString("author_email"),
+                            rs.getInt("is_merge") == 1,
+                            rs.getInt("lines_added"),
+                            rs.getInt("lines_deleted"),
+                            rs.getInt("blank_lines_added"),
+                            rs.getInt("blank_lines_deleted"),
+                            rs.getInt("meaningless") == 1,
+                            rs.getInt("generated_files_pushed"),
+                            rs.getInt("documentation_lines_added"),
+                            rs.getInt("files_added"),
+                            rs.getInt("files_edited"),
+                            rs.getInt("files_deleted"),
+                            rs.getInt("touched_tests") == 1,
+                            rs.getDouble("ai_probability"),
+                            breakdowns.languages(id),
+                            breakdowns.directories(id),
+                            List.of()
+                    ));
+                }
+            }
+            return new AnalysisBaseline(settingsKey, refTips, contributions);
+        });
+    }
+
+    /**
+     * Records the facts of a run. A full run replaces everything stored for the repository,
+     * an incremental run only adds the newly analyzed commits.
+     */
+    public void saveAnalysisBaseline(String repoId, String settingsKey, RepositoryAnalysis analysis) throws SQLException {
+        transaction(conn -> {
+            PreparedStatement deleteTips = conn.prepare("DELETE FROM analysis_tips WHERE repo_id = ?");
+            deleteTips.setString(1, repoId);
+            deleteTips.executeUpdate();
+            if (!analysis.incremental()) {
+                PreparedStatement deleteParts = conn.prepare("DELETE FROM contribution_breakdown WHERE owner_id IN (SELECT id FROM commit_contributions WHERE repo_id = ?)");
+                deleteParts.setString(1, repoId);
+                deleteParts.executeUpdate();
+                PreparedStatement deleteFiles = conn.prepare("DELETE FROM file_changes WHERE contribution_id IN (SELECT id FROM commit_contributions WHERE repo_id = ?)");
+                deleteFiles.setString(1, repoId);
+                deleteFiles.executeUpdate();
+                PreparedStatement deleteFacts = conn.prepare("DELETE FROM commit_contributions WHERE repo_id = ?");
+                deleteFacts.setString(1, repoId);
+                deleteFacts.executeUpdate();
+            } else {
+                // A commit stored again replaces its old row, breakdown and files
+                PreparedStatement deleteParts = conn.prepare("DELETE FROM contribution_breakdown WHERE owner_id = (SELECT id FROM commit_contributions WHERE repo_id = ? AND commit_hash = ?)");
+                PreparedStatement deleteFiles = conn.prepare("DELETE FROM file_changes WHERE contribution_id = (SELECT id FROM commit_contributions WHERE repo_id = ? AND commit_hash = ?)");
+                PreparedStatement deleteFact = conn.prepare("DELETE FROM commit_contributions WHERE repo_id = ? AND commit_hash = ?");
+                for (CommitContribution c : analysis.newContributions()) {
+                    deleteParts.setString(1, repoId);
+                    deleteParts.setString(2, c.commitHash());
+                    deleteParts.addBatch();
+                    deleteFiles.setString(1, repoId);
+                    deleteFiles.setString(2, c.commitHash());
+                    deleteFiles.addBatch();
+                    deleteFact.setString(1, repoId);
+                    deleteFact.setString(2, c.commitHash());
+                    deleteFact.addBatch();
+                }
+                deleteParts.executeBatch();
+                deleteFiles.executeBatch();
+                deleteFact.executeBatch();
+            }
+            PreparedStatement insertTips = conn.prepare("INSERT INTO analysis_tips (repo_id, ref_name, object_id, settings_key) VALUES (?, ?, ?, ?)");
+            for (Map.Entry<String, String> tip : analysis.refTips().entrySet()) {
+                insertTips.setString(1, repoId);
+                insertTips.setString(2, tip.getKey());
+                insertTips.setString(3, tip.getValue());
+                insertTips.setString(4, settingsKey);
+                insertTips.addBatch();
+            }
+            insertTips.executeBatch();
+            String sql = "INSERT INTO commit_contributions (id, repo_id, commit_hash, commit_time, author_name, author_email, is_merge, lines_added, lines_deleted, blank_lines_added, blank_lines_deleted, meaningless, generated_files_pushed, documentation_lines_added, files_added, files_edited, files_deleted, touched_tests, ai_probability) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+            PreparedStatement pstmt = conn.prepare(sql);
+            PreparedStatement parts = conn.prepare("INSERT INTO contribution_breakdown (owner_id, kind, key_id, value) VALUES (?, ?, ?, ?)");
+            // A path can appear twice in one commit when its type changed, as a delete and an add
+            PreparedStatement files = conn.prepare("INSERT INTO file_changes (contribution_id, path_id, category, change_type, insertions, deletions) VALUES (?, ?, ?, ?, ?, ?) "
+                    + "ON CONFLICT (contribution_id, path_id) DO UPDATE SET change_type = excluded.change_type, insertions = insertions + excluded.insertions, deletions = deletions + excluded.deletions");
+            long id = maxId(conn, "commit_contributions");
+            for (CommitContribution c : analysis.newContributions()) {
+                id++;
+                pstmt.setLong(1, id);
+                pstmt.setString(2, repoId);
+                pstmt.setString(3, c.commitHash());
+                pstmt.setLong(4, c.commitTime());
+                pstmt.setString(5, c.authorName());
+                pstmt.setString(6, c.authorEmail());
+                pstmt.setInt(7, c.isMerge() ? 1 : 0);
+                pstmt.setInt(8, c.linesAdded());
+                pstmt.setInt(9, c.linesDeleted());
+                pstmt.setInt(10, c.blankLinesAdded());
+                pstmt.setInt(11, c.blankLinesDeleted());
+                pstmt.setInt(12, c.meaningless() ? 1 : 0);
+                pstmt.setInt(13, c.generatedFilesPushed());
+                pstmt.setInt(14, c.documentationLinesAdded());
+                pstmt.setInt(15, c.filesAdded());
+                pstmt.setInt(16, c.filesEdited());
+                pstmt.setInt(17, c.filesDeleted());
+                pstmt.setInt(18, c.touchedTests() ? 1 : 0);
+                pstmt.setDouble(19, c.aiProbability());
+                pstmt.addBatch();
+                addBreakdown(conn, parts, id, LANGUAGES, c.languageBreakdown());
+                addBreakdown(conn, parts, id, DIRECTORIES, c.directoryBreakdown());
+                for (CommitFileChange file : c.files()) {
+                    files.setLong(1, id);
+                    files.setLong(2, pathId(conn, file.path()));
+                    files.setString(3, file.category());
+                    files.setString(4, file.changeType());
+                    files.setInt(5, file.insertions());
+                    files.setInt(6, file.deletions());
+                    files.addBatch();
+                }
+            }
+            pstmt.executeBatch();
+            parts.executeBatch();
+            files.executeBatch();
+        });
+    }
+
+    /**
+     * Paths changed by the most stored commits, then by the most changed lines. Authors are the raw commit authors;
+     * aliases are applied by the caller. Only commits of the stored baseline count, merges are never among them.
+     */
+    public List<FileActivity> getFileHotspots(String repoId, int limit) throws SQLException {
+        String sql = """
+            WITH per_author AS (
+                SELECT f.path_id, c.author_name, COUNT(*) AS commits, SUM(f.insertions) AS insertions, SUM(f.deletions) AS deletions,
+                       MAX(f.category) AS category
+                FROM commit_contributions c JOIN file_changes f ON f.contribution_id = c.id
+                WHERE c.repo_id = ?
+                GROUP BY f.path_id, c.author_name
+            ), per_path AS (
+                SELECT path_id, SUM(commits) AS commits, SUM(insertions) AS insertions, SUM(deletions) AS deletions,
+                       COUNT(*) AS authors, MAX(category) AS category
+                FROM per_author
+                GROUP BY path_id
+                ORDER BY commits DESC, insertions + deletions DESC
+                LIMIT ?
+            )
+            SELECT p.path, pp.category, pp.commits, pp.insertions, pp.deletions, pp.authors,
+                   (SELECT a.author_name FROM per_author a WHERE a.path_id = pp.path_id ORDER BY a.insertions + a.deletions DESC, a.commits DESC LIMIT 1) AS top_author
+            FROM per_path pp JOIN file_path p ON p.path_id = pp.path_id
+            ORDER BY pp.commits DESC, pp.insertions + pp.deletions DESC
+            """;
+        List<FileActivity> hotspots = new ArrayList<>();
+        synchronized (reader) {
+            PreparedStatement pstmt = reader.prepare(sql);
+            pstmt.setString(1, repoId);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    hotspots.add(new FileActivity(
+                            rs.getString("path"),
+                            rs.getString("category"),
+                            rs.getInt("commits"),
+                            rs.getInt("insertions"),
+                            rs.getInt("deletions"),
+                            rs.getInt("authors"),
+                            rs.getString("top_author")
                     ));
                 }
             }
         }
-        return commits;
+        return hotspots;
+    }
+
+    // Lines changed per file category by the stored commits with a commit time (epoch seconds) in [from, to)
+    public Map<String, Integer> getCategoryChurn(String repoId, long from, long to) throws SQLException {
+        String sql = "SELECT f.category, SUM(f.insertions + f.deletions) AS lines FROM commit_contributions c JOIN file_changes f ON f.contribution_id = c.id "
+                + "WHERE c.repo_id = ? AND c.commit_time >= ? AND c.commit_time < ? GROUP BY f.category";
+        Map<String, Integer> churn = new HashMap<>();
+        synchronized (reader) {
+            PreparedStatement pstmt = reader.prepare(sql);
+            pstmt.setString(1, repoId);
+            pstmt.setLong(2, from);
+            pstmt.setLong(3, to);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    churn.put(rs.getString("category"), rs.getInt("lines"));
+                }
+            }
+        }
+        return churn;
+    }
+
+    public Map<String, String> getProvenanceTips(String repoId) throws SQLException {
+        Map<String, String> tips = new HashMap<>();
+        synchronized (reader) {
+            PreparedStatement pstmt = reader.prepare("SELECT ref_name, object_id FROM provenance_tips WHERE repo_id = ?");
+            pstmt.setString(1, repoId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    tips.put(rs.getString("ref_name"), rs.getString("object_id"));
+                }
+            }
+        }
+        return tips;
+    }
+
+    public Map<String, FileProvenance> getFileProvenance(String repoId) throws SQLException {
+        Map<String, FileProvenance> provenance = new HashMap<>();
+        String sql = "SELECT path, commit_hash, commit_time, author_name, author_email, renamed_from FROM file_provenance WHERE repo_id = ?";
+        synchronized (reader) {
+            PreparedStatement pstmt = reader.prepare(sql);
+            pstmt.setString(1, repoId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    provenance.put(rs.getString("path"), new FileProvenance(
+                            rs.getString("path"),
+                            rs.getString("commit_hash"),
+                            rs.getLong("commit_time"),
+                            rs.getString("author_name"),
+                            rs.getString("author_email"),
+                            rs.getString("renamed_from")
+                    ));
+                }
+            }
+        }
+        return provenance;
+    }
+
+    // Stores the changed rows and the tips they were computed from; replaceAll drops the previous index first
+    public void saveFileProvenance(String repoId, Map<String, String> tips, Collection<FileProvenance> rows, boolean replaceAll) throws SQLException {
+        transaction(conn -> {
+            PreparedStatement deleteTips = conn.prepare("DELETE FROM provenance_tips WHERE repo_id = ?");
+            deleteTips.setString(1, repoId);
+            deleteTips.executeUpdate();
+            if (replaceAll) {
+                PreparedStatement deleteRows = conn.prepare("DELETE FROM file_provenance WHERE repo_id = ?");
+                deleteRows.setString(1, repoId);
+                deleteRows.executeUpdate();
+            }
+            PreparedStatement insertTips = conn.prepare("INSERT INTO provenance_tips (repo_id, ref_name, object_id) VALUES (?, ?, ?)");
+            for (Map.Entry<String, String> tip : tips.entrySet()) {
+                insertTips.setString(1, repoId);
+                insertTips.setString(2, tip.getKey());
+                insertTips.setString(3, tip.getValue());
+                insertTips.addBatch();
+            }
+            insertTips.executeBatch();
+            String sql = "INSERT OR REPLACE INTO file_provenance (repo_id, path, commit_hash, commit_time, author_name, author_email, renamed_from) VALUES (?, ?, ?, ?, ?, ?, ?)";
+            PreparedStatement pstmt = conn.prepare(sql);
+            for (FileProvenance row : rows) {
+                pstmt.setString(1, repoId);
+                pstmt.setString(2, row.path());
+                pstmt.setString(3, row.commitHash());
+                pstmt.setLong(4, row.commitTime());
+                pstmt.setString(5, row.authorName());
+                pstmt.setString(6, row.authorEmail());
+                pstmt.setString(7, row.renamedFrom());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        });
     }
 
-    private java.util.Map<String, Integer> parseLanguageBreakdown(String str) {
+    // The Map.toString() text older versions stored
+    private static java.util.Map<String, Integer> parseLegacyBreakdown(String str) {
         java.util.Map<String, Integer> map = new java.util.HashMap<>();
         if (str == null || str.isEmpty() || str.equals("{}")) return map;
         str = str.substring(1, str.length() - 1); // remove { and }
@@ -0,0 +1,234 @@
+package dev.grahamhill.service;
+
+import dev.grahamhill.model.DiffStat;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed cache of diff stats keyed by (old blob, new blob, diff algorithm).
+ * Blob pairs never change, so an entry stays valid across runs, branches and repositories.
+ * Lookups go to a concurrent in-memory map first and then to a SQLite file; new entries are written in batches on
+ * flush(). The memory tier takes no lock, so diff workers only wait on each other for disk reads, which share one
+ * prepared statement, and never for a flush, which writes on its own connection.
+ */
+public class DiffStatCache implements AutoCloseable {
+    private static final int MEMORY_ENTRIES = 200_000;
+    private static final int FLUSH_THRESHOLD = 5_000;
+
+    private record Key(ObjectId oldId, ObjectId newId, String algorithm) {}
+
+    private final File dbFile;
+    // Past the limit an arbitrary eighth is dropped; entries still waiting for the disk stay in pending
+    private final Map<Key, DiffStat> memory = new ConcurrentHashMap<>();
+    private final Map<Key, DiffStat> pending = new ConcurrentHashMap<>();
+    // Guards reader and lookup
+    private final Object readLock = new Object();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Connection reader;
+    private PreparedStatement lookup;
+    private Connection writer;
+    private volatile boolean opened;
+    private volatile boolean diskDisabled;
+
+    public DiffStatCache(File dbFile) {
+        this.dbFile = dbFile;
+    }
+
+    public DiffStat get(AnyObjectId oldId, AnyObjectId newId, String algorithm) {
+        Key key = new Key(oldId.copy(), newId.copy(), algorithm);
+        DiffStat stat = memory.get(key);
+        if (stat == null) {
+            stat = pending.get(key);
+        }
+        if (stat == null) {
+            stat = loadFromDisk(key);
+            if (stat != null) remember(key, stat);
+        }
+        return stat;
+    }
+
+    public void put(AnyObjectId oldId, AnyObjectId newId, String algorithm, DiffStat stat) {
+        Key key = new Key(oldId.copy(), newId.copy(), algorithm);
+        DiffStat merged = memory.merge(key, stat, (cached, added) -> added.merge(cached));
+        evictIfFull();
+        pending.put(key, merged);
+        // A worker finding a flush under way goes on diffing; the entries are written by the next one
+        if (pending.size() >= FLUSH_THRESHOLD && writeLock.tryLock()) {
+            try {
+                writePending();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // Writes the entries added since the last flush in a single transaction
+    public void flush() {
+        writeLock.lock();
+        try {
+            writePending();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Flushes and closes the SQLite file; the cache keeps answering from memory afterwards
+    @Override
+    public void close() {
+        flush();
+        writeLock.lock();
+        try {
+            synchronized (readLock) {
+                diskDisabled = true;
+                try {
+                    if (lookup != null) lookup.close();
+                    if (reader != null) reader.close();
+                    if (writer != null) writer.close();
+                } catch (SQLException e) {
+                    System.err.println("Could not close diff stat cache: " + e.getMessage());
+                }
+                lookup = null;
+                reader = null;
+                writer = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void remember(Key key, DiffStat stat) {
+        memory.putIfAbsent(key, stat);
+        evictIfFull();
+    }
+
+    private void evictIfFull() {
+        if (memory.size() <= MEMORY_ENTRIES) return;
+        int excess = memory.size() - MEMORY_ENTRIES + MEMORY_ENTRIES / 8;
+        Iterator<Key> keys = memory.keySet().iterator();
+        while (excess-- > 0 && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    // Called with writeLock held. Entries replaced while the batch was written stay pending for the next flush.
+    private void writePending() {
+        if (pending.isEmpty()) return;
+        if (!openDisk()) {
+            pending.clear();
+            return;
+        }
+        List<Map.Entry<Key, DiffStat>> batch = new ArrayList<>(pending.size());
+        for (Map.Entry<Key, DiffStat> e : pending.entrySet()) {
+            batch.add(Map.entry(e.getKey(), e.getValue()));
+        }
+        String sql = "INSERT OR REPLACE INTO diff_stats (old_id, new_id, algorithm, insertions, deletions, blank_added, blank_deleted, ws_only_insertions, ws_only_deletions) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmt = writer.prepareStatement(sql)) {
+            writer.setAutoCommit(false);
+            for (Map.Entry<Key, DiffStat> e : batch) {
+                Key key = e.getKey();
+                DiffStat stat = e.getValue();
+                pstmt.setString(1, key.oldId().name());
+                pstmt.setString(2, key.newId().name());
+                pstmt.setString(3, key.algorithm());
+                pstmt.setInt(4, stat.insertions());
+                pstmt.setInt(5, stat.deletions());
+                pstmt.setInt(6, stat.blankLinesAdded());
+                pstmt.setInt(7, stat.blankLinesDeleted());
+                pstmt.setInt(8, stat.whitespaceOnlyInsertions());
+                pstmt.setInt(9, stat.whitespaceOnlyDeletions());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            writer.commit();
+        } catch (SQLException e) {
+            System.err.println("Could not write diff stat cache: " + e.getMessage());
+            try {
+                writer.rollback();
+            } catch (SQLException ignored) {}
+        } finally {
+            try {
+                writer.setAutoCommit(true);
+            } catch (SQLException ignored) {}
+            // Written or lost with the failed batch, either way not retried
+            for (Map.Entry<Key, DiffStat> e : batch) {
+                pending.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private DiffStat loadFromDisk(Key key) {
+        if (diskDisabled || !openDisk()) return null;
+        synchronized (readLock) {
+            if (lookup == null) return null;
+            try {
+                lookup.setString(1, key.oldId().name());
+                lookup.setString(2, key.newId().name());
+                lookup.setString(3, key.algorithm());
+                try (ResultSet rs = lookup.executeQuery()) {
+                    if (rs.next()) {
+                        return new DiffStat(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getInt(6));
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Could not read diff stat cache: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Opens the writer, which creates the table, and then the reader with its lookup statement. WAL lets the reader
+     * run beside a flush. The disk tier is optional; if the file cannot be opened the cache keeps working in memory.
+     */
+    private boolean openDisk() {
+        if (!opened) open();
+        return !diskDisabled;
+    }
+
+    private synchronized void open() {
+        if (opened) return;
+        try {
+            String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+            writer = DriverManager.getConnection(url);
+            try (Statement stmt = writer.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA busy_timeout=5000");
+                stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS diff_stats (
+                        old_id TEXT,
+                        new_id TEXT,
+                        algorithm TEXT,
+                        insertions INTEGER,
+                        deletions INTEGER,
+                        blank_added INTEGER,
+                        blank_deleted INTEGER,
+                        ws_only_insertions INTEGER,
+                        ws_only_deletions INTEGER,
+                        PRIMARY KEY (old_id, new_id, algorithm)
+                    )
+                    """);
+            }
+            synchronized (readLock) {
+                reader = DriverManager.getConnection(url);
+                try (Statement stmt = reader.createStatement()) {
+                    stmt.execute("PRAGMA busy_timeout=5000");
+                }
+                lookup = reader.prepareStatement("SELECT insertions, deletions, blank_added, blank_deleted, ws_only_insertions, ws_only_deletions FROM diff_stats WHERE old_id = ? AND new_id = ? AND algorithm = ?");
+            }
+        } catch (SQLException e) {
+            System.err.println("Diff stat cache disabled, could not open " + dbFile + ": " + e.getMessage());
+            diskDisabled = true;
+        }
+        opened = true;
+    }
+}
@@ -1,90 +1,250 @@
 package dev.grahamhill.service;
 
+import dev.grahamhill.model.AnalysisBaseline;
+import dev.grahamhill.model.AnalysisProgress;
+import dev.grahamhill.model.AnalysisScope;
+import dev.grahamhill.model.CommitContribution;
+import dev.grahamhill.model.CommitFileChange;
 import dev.grahamhill.model.CommitInfo;
 import dev.grahamhill.model.ContributorStats;
+import dev.grahamhill.model.DiffStat;
 import dev.grahamhill.model.FileChange;
+import dev.grahamhill.model.FileProvenance;
 import dev.grahamhill.model.MeaningfulChangeAnalysis;
+import dev.grahamhill.model.RepositoryAnalysis;
+import dev.grahamhill.model.StorageCacheStats;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.Edit;
-import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.io.DisabledOutputStream;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.stream.Collectors;
 
-public class GitService {
+public class GitService implements AutoCloseable {
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    // Shared by every repository, blob pairs are content addressed
+    private final DiffStatCache diffStatCache = new DiffStatCache(new File(DatabaseService.getAppDir(), "diff-stats.db"));
+    private final PathClassifier pathClassifier = new PathClassifier();
+    // Optional store for the file-provenance index; without it the index is rebuilt on every call
+    private DatabaseService databaseService;
+    // Commits, dates, paths and authors the history walks are limited to; read once per call, it may change meanwhile
+    private volatile AnalysisScope scope = AnalysisScope.ALL;
+    // Blobs above this size are never loaded whole; 0 keeps DiffFormatter's default
+    private volatile int largeBlobThreshold = BlobGuard.DEFAULT_THRESHOLD;
+    // Threads reading beside the main walk of analyzeRepository: branches, provenance, count, initial commit
+    private static final int ANALYSIS_PHASES = 4;
+    // Repositories held open by sessions, by canonical path
+    private final Map<String, SharedRepository> openRepositories = new HashMap<>();
+
+    // Number of workers diffing commits; 1 runs the walk on the calling thread
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
 
-    public String getProjectStructure(File repoPath, Set<String> ignoredFolders, Map<String, String> aliases) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("PROJECT STRUCTURE (with creation commit IDs and Creators):\n");
-        try (Git git = Git.open(repoPath)) {
-            Repository repository = git.getRepository();
-            Map<String, String> creationCommits = getFileCreationCommits(git);
-            Map<String, String> creators = getFileCreators(git, aliases);
-            listDirectory(repoPath, repoPath, "", sb, ignoredFolders, 0, creationCommits, creators);
-        } catch (Exception e) {
-            sb.append("Error reading project structure: ").append(e.getMessage());
-        }
-        return sb.toString();
+    public void setDatabaseService(DatabaseService databaseService) {
+        this.databaseService = databaseService;
     }
 
-    private Map<String, String> getFileCreators(Git git, Map<String, String> aliases) throws Exception {
-        Map<String, String> map = new HashMap<>();
-        Iterable<RevCommit> commits = git.log().all().call();
-        List<RevCommit> commitList = new ArrayList<>();
-        commits.forEach(commitList::add);
-        Collections.reverse(commitList); // Oldest first
-
-        try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-            df.setRepository(git.getRepository());
-            for (RevCommit commit : commitList) {
-                RevCommit parent = commit.getParentCount() > 0 ? commit.getParent(0) : null;
-                List<DiffEntry> diffs = df.scan(parent == null ? null : parent.getTree(), commit.getTree());
-                for (DiffEntry entry : diffs) {
-                    if (entry.getChangeType() == DiffEntry.ChangeType.ADD) {
-                        String path = entry.getNewPath();
-                        String authorName = commit.getAuthorIdent().getName();
-                        String authorEmail = commit.getAuthorIdent().getEmailAddress();
-                        String targetName = aliases != null ? aliases.getOrDefault(authorEmail, authorName) : authorName;
-                        map.putIfAbsent(path, targetName);
-                    }
+    public void setAnalysisScope(AnalysisScope scope) {
+        this.scope = scope != null ? scope : AnalysisScope.ALL;
+    }
+
+    public AnalysisScope getAnalysisScope() {
+        return scope;
+    }
+
+    public void setLargeBlobThreshold(int bytes) {
+        this.largeBlobThreshold = bytes > 0 ? bytes : BlobGuard.DEFAULT_THRESHOLD;
+    }
+
+    // Writes the diff stats still held in memory and closes their file; analyses afterwards only cache in memory
+    @Override
+    public void close() {
+        diffStatCache.close();
+    }
+
+    /**
+     * Keeps the repository at repoPath open until the session is closed. Every call on that path in between
+     * reuses it, with its pack handles and the window cache entries of its packs, instead of opening the
+     * repository again. Sessions on the same path nest. If the path cannot be opened the session does
+     * nothing and the calls report their usual errors.
+     */
+    public Session openSession(File repoPath) {
+        String key = repoKey(repoPath);
+        synchronized (openRepositories) {
+            SharedRepository shared = openRepositories.get(key);
+            if (shared == null) {
+                try {
+                    shared = new SharedRepository(useCommitGraph(Git.open(repoPath).getRepository()));
+                } catch (IOException e) {
+                    return new Session(null);
                 }
+                openRepositories.put(key, shared);
             }
+            shared.sessions++;
+            return new Session(key);
         }
-        return map;
     }
 
-    private Map<String, String> getFileCreationCommits(Git git) throws Exception {
-        Map<String, String> map = new HashMap<>();
-        Iterable<RevCommit> commits = git.log().all().call();
-        List<RevCommit> commitList = new ArrayList<>();
-        commits.forEach(commitList::add);
-        Collections.reverse(commitList); // Oldest first
-
-        try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-            df.setRepository(git.getRepository());
-            for (RevCommit commit : commitList) {
-                RevCommit parent = commit.getParentCount() > 0 ? commit.getParent(0) : null;
-                List<DiffEntry> diffs = df.scan(parent == null ? null : parent.getTree(), commit.getTree());
-                for (DiffEntry entry : diffs) {
-                    if (entry.getChangeType() == DiffEntry.ChangeType.ADD) {
-                        String path = entry.getNewPath();
-                        map.putIfAbsent(path, commit.getName().substring(0, 7));
-                    }
+    public final class Session implements AutoCloseable {
+        private String key;
+
+        private Session(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void close() {
+            if (key == null) return;
+            synchronized (openRepositories) {
+                SharedRepository shared = openRepositories.get(key);
+                if (shared != null && --shared.sessions == 0) {
+                    openRepositories.remove(key);
+                    shared.repository.close();
                 }
             }
+            key = null;
         }
-        return map;
+    }
+
+    private static final class SharedRepository {
+        final Repository repository;
+        int sessions;
+
+        SharedRepository(Repository repository) {
+            this.repository = repository;
+        }
+    }
+
+    // The session's repository if one is open; closing the returned Git leaves it open
+    private Git openGit(File repoPath) throws IOException {
+        synchronized (openRepositories) {
+            SharedRepository shared = openRepositories.get(repoKey(repoPath));
+            if (shared != null) return Git.wrap(shared.repository);
+        }
+        Git git = Git.open(repoPath);
+        useCommitGraph(git.getRepository());
+        return git;
+    }
+
+    /**
+     * JGit only reads objects/info/commit-graph when core.commitGraph is set, while git itself defaults it to
+     * true. Turned on in memory when the file exists and the repository does not say otherwise; without the
+     * file every walk parses commit objects as before.
+     */
+    private static Repository useCommitGraph(Repository repository) {
+        StoredConfig config = repository.getConfig();
+        if (config.getString(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_COMMIT_GRAPH) == null
+                && new File(repository.getDirectory(), "objects/info/commit-graph").isFile()) {
+            config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_COMMIT_GRAPH, true);
+        }
+        return repository;
+    }
+
+    /**
+     * With a commit-graph, parents, commit time and tree of every commit in it come from the graph, and the walk
+     * only inflates a commit object when its body is asked for: HistoryEngine does so for the commits it is handed,
+     * author filters for the commits they test. Without one a header-only walk would inflate produced commits
+     * twice, so the walk is left as it is.
+     */
+    private static RevWalk readHeadersFromCommitGraph(RevWalk walk) throws IOException {
+        if (walk.getObjectReader().getCommitGraph().isPresent()) walk.setRetainBody(false);
+        return walk;
+    }
+
+    private static String repoKey(File repoPath) {
+        try {
+            return repoPath.getCanonicalPath();
+        } catch (IOException e) {
+            return repoPath.getAbsolutePath();
+        }
+    }
+
+    // Hit and miss counts of the process-wide pack window cache, see StorageProfile
+    public StorageCacheStats storageCacheStats() {
+        WindowCacheStats stats = WindowCacheStats.getStats();
+        return new StorageCacheStats(stats.getHitCount(), stats.getMissCount(), stats.getEvictionCount(),
+                stats.getOpenFileCount(), stats.getOpenByteCount());
+    }
+
+    private HistoryEngine newEngine(Repository repository) {
+        return new HistoryEngine(repository).setParallelism(parallelism).setDiffStatCache(diffStatCache)
+                .setBlobGuard(new BlobGuard(largeBlobThreshold));
+    }
+
+    // Engine whose diffs only see the paths of the analysis scope
+    private HistoryEngine newScopedEngine(Repository repository, AnalysisScope scope) {
+        return newEngine(repository).setPathFilter(ScopeFilters.pathFilter(scope));
+    }
+
+    /**
+     * The commits of the analysis scope, newest first, starting from every ref like LogCommand.all().
+     * The scope's filters run inside the walk, so a date or count limit stops it instead of skipping the rest.
+     */
+    private RevWalk scopedWalk(Repository repository, AnalysisScope scope) throws IOException {
+        RevWalk walk = allCommitsWalk(repository);
+        walk.setRevFilter(ScopeFilters.revFilter(scope));
+        TreeFilter pathFilter = ScopeFilters.pathFilter(scope);
+        if (pathFilter != null) {
+            walk.setTreeFilter(AndTreeFilter.create(pathFilter, TreeFilter.ANY_DIFF));
+            // Collectors diff against the real first parent, not the previous commit touching the paths
+            walk.setRewriteParents(false);
+        }
+        return walk;
+    }
+
+    private RevWalk allCommitsWalk(Repository repository) throws IOException {
+        RevWalk walk = readHeadersFromCommitGraph(new RevWalk(repository));
+        for (Ref ref : repository.getRefDatabase().getRefs()) {
+            if (!ref.isPeeled()) ref = repository.getRefDatabase().peel(ref);
+            ObjectId id = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+            if (id == null) continue;
+            try {
+                walk.markStart(walk.parseCommit(id));
+            } catch (MissingObjectException | IncorrectObjectTypeException e) {
+                // not a commit, not a starting point
+            }
+        }
+        return walk;
+    }
+
+    public String getProjectStructure(File repoPath, Set<String> ignoredFolders, Map<String, String> aliases) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PROJECT STRUCTURE (with creation commit IDs and Creators):\n");
+        try (Git git = openGit(repoPath)) {
+            Map<String, FileProvenance> provenance = fileProvenance(repoPath, git);
+            listDirectory(repoPath, repoPath, "", sb, ignoredFolders, 0, creationCommits(provenance), creators(provenance, aliases));
+        } catch (Exception e) {
+            sb.append("Error reading project structure: ").append(e.getMessage());
+        }
+        return sb.toString();
     }
 
     private void listDirectory(File baseDir, File currentDir, String indent, StringBuilder sb, Set<String> ignoredFolders, int depth, Map<String, String> creationCommits, Map<String, String> creators) {
@@ -120,105 +280,135 @@ public class GitService {
     }
 
     public MeaningfulChangeAnalysis performMeaningfulChangeAnalysis(File repoPath, int limit, Set<String> ignoredFolders) throws Exception {
-        try (Git git = Git.open(repoPath)) {
-            Repository repository = git.getRepository();
-            var logCommand = git.log();
-            if (limit > 0) {
-                logCommand.setMaxCount(limit);
-            }
-            List<RevCommit> commits = new ArrayList<>();
-            git.log().all().call().forEach(commits::add);
-            
-            // If limit is set, we only care about the latest N commits
-            if (limit > 0 && commits.size() > limit) {
-                commits = commits.subList(0, limit);
+        AnalysisScope scope = this.scope;
+        try (Git git = openGit(repoPath)) {
+            RangeCollector range = new RangeCollector(limit);
+            HistoryEngine engine = newScopedEngine(git.getRepository(), scope);
+            try (RevWalk walk = scopedWalk(git.getRepository(), scope)) {
+                engine.run(walk, List.of(range));
             }
+            return analyzeRange(git.getRepository(), range, ignoredFolders, creators(fileProvenance(repoPath, git), null), engine.getBlobGuard(), scope);
+        }
+    }
+
+    private MeaningfulChangeAnalysis analyzeRange(Repository repository, RangeCollector rangeCollector, Set<String> ignoredFolders, Map<String, String> creators, BlobGuard blobGuard, AnalysisScope scope) throws IOException {
+        if (rangeCollector.newest == null) return null;
+
+        RevCommit newest = rangeCollector.newest;
+        RevCommit oldest = rangeCollector.oldest;
+        String range = oldest.getName().substring(0, 7) + ".." + newest.getName().substring(0, 7);
+        if (rangeCollector.count == 1) range = newest.getName().substring(0, 7);
+
+        var formatter = java.time.format.DateTimeFormatter.ofPattern("dd MMM yy");
+        String startDate = java.time.LocalDateTime.ofInstant(java.time.Instant.ofEpochSecond(oldest.getCommitTime()), java.time.ZoneId.systemDefault()).format(formatter);
+        String endDate = java.time.LocalDateTime.ofInstant(java.time.Instant.ofEpochSecond(newest.getCommitTime()), java.time.ZoneId.systemDefault()).format(formatter);
+        String dateRange = startDate + " - " + endDate;
+        if (startDate.equals(endDate)) dateRange = startDate;
+
+        List<FileChange> allFileChanges = new ArrayList<>();
+        int totalIns = 0;
+        int totalDel = 0;
+        int totalWsIns = 0;
+        int totalWsDel = 0;
+
+        // We want to analyze the aggregate change over the range
+        // Compare oldest's parent to newest
+        RevCommit base = oldest.getParentCount() > 0 ? oldest.getParent(0) : null;
+        ObjectId baseTree = base != null ? base.getTree() : null;
+        ObjectId newestTree = newest.getTree();
+
+        Map<String, MeaningfulChangeAnalysis.CategoryMetrics> categoryMap = new HashMap<>();
+        initializeCategories(categoryMap);
+
+        try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
+             ObjectReader reader = repository.newObjectReader()) {
+            df.setRepository(repository);
+            df.setDetectRenames(true);
+            df.setBinaryFileThreshold(blobGuard.threshold());
+            TreeFilter pathFilter = ScopeFilters.pathFilter(scope);
+            if (pathFilter != null) df.setPathFilter(pathFilter);
+
+            String algorithm = HistoryEngine.diffAlgorithm(repository);
+            List<DiffEntry> diffs = df.scan(baseTree, newestTree);
+            for (DiffEntry entry : diffs) {
+                String path = entry.getNewPath().equals(DiffEntry.DEV_NULL) ? entry.getOldPath() : entry.getNewPath();
+                
+                if (isIgnoredFolder(path, ignoredFolders)) continue;
 
-            if (commits.isEmpty()) return null;
-
-            RevCommit newest = commits.get(0);
-            RevCommit oldest = commits.get(commits.size() - 1);
-            String range = oldest.getName().substring(0, 7) + ".." + newest.getName().substring(0, 7);
-            if (commits.size() == 1) range = newest.getName().substring(0, 7);
-
-            var formatter = java.time.format.DateTimeFormatter.ofPattern("dd MMM yy");
-            String startDate = java.time.LocalDateTime.ofInstant(java.time.Instant.ofEpochSecond(oldest.getCommitTime()), java.time.ZoneId.systemDefault()).format(formatter);
-            String endDate = java.time.LocalDateTime.ofInstant(java.time.Instant.ofEpochSecond(newest.getCommitTime()), java.time.ZoneId.systemDefault()).format(formatter);
-            String dateRange = startDate + " - " + endDate;
-            if (startDate.equals(endDate)) dateRange = startDate;
-
-            List<FileChange> allFileChanges = new ArrayList<>();
-            int totalIns = 0;
-            int totalDel = 0;
-            int totalWsIns = 0;
-            int totalWsDel = 0;
-
-            // We want to analyze the aggregate change over the range
-            // Compare oldest's parent to newest
-            RevCommit base = oldest.getParentCount() > 0 ? oldest.getParent(0) : null;
-            ObjectId baseTree = base != null ? base.getTree() : null;
-            ObjectId newestTree = newest.getTree();
-
-            Map<String, MeaningfulChangeAnalysis.CategoryMetrics> categoryMap = new HashMap<>();
-            initializeCategories(categoryMap);
-            Map<String, String> creators = getFileCreators(git, null);
-
-            try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
-                 DiffFormatter dfWs = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-                df.setRepository(repository);
-                df.setDetectRenames(true);
-                dfWs.setRepository(repository);
-                dfWs.setDiffComparator(RawTextComparator.WS_IGNORE_ALL);
-
-                List<DiffEntry> diffs = df.scan(baseTree, newestTree);
-                for (DiffEntry entry : diffs) {
-                    String path = entry.getNewPath().equals(DiffEntry.DEV_NULL) ? entry.getOldPath() : entry.getNewPath();
-                    
-                    if (isIgnoredFolder(path, ignoredFolders)) continue;
-
-                    String category = categorizePath(path, repository);
-                    
+                String category = categorizePath(path, repository);
+                
+                boolean cacheable = entry.getOldId().isComplete() && entry.getNewId().isComplete();
+                DiffStat stat = cacheable ? diffStatCache.get(entry.getOldId().toObjectId(), entry.getNewId().toObjectId(), algorithm) : null;
+                if ((stat == null || !stat.hasWhitespace()) && cacheable
+                        && (blobGuard.isOversized(reader, entry.getOldMode(), entry.getOldId()) || blobGuard.isOversized(reader, entry.getNewMode(), entry.getNewId()))) {
+                    // Never loaded whole: streamed line counts for an added or deleted file, nothing for a modification
+                    DiffStat counted = blobGuard.countOversized(BlobGuard.open(reader, entry.getOldMode(), entry.getOldId()), BlobGuard.open(reader, entry.getNewMode(), entry.getNewId()));
+                    stat = counted != null ? counted.withWhitespace(0, 0) : DiffStat.of(0, 0).withWhitespace(0, 0);
+                    if (counted != null) {
+                        diffStatCache.put(entry.getOldId().toObjectId(), entry.getNewId().toObjectId(), algorithm, stat);
+                    }
+                } else if (stat == null || !stat.hasWhitespace()) {
                     int ins = 0;
                     int del = 0;
+                    int wsOnly = 0;
+                    BlobLineIndex a = null;
+                    BlobLineIndex b = null;
                     for (Edit edit : df.toFileHeader(entry).toEditList()) {
                         ins += edit.getEndB() - edit.getBeginB();
                         del += edit.getEndA() - edit.getBeginA();
+                        // Churn: lines of the same edit that are equal once whitespace is ignored
+                        if (edit.getType() == Edit.Type.REPLACE) {
+                            if (a == null) {
+                                a = normalizedLineIndex(repository, entry.getOldId());
+                                b = normalizedLineIndex(repository, entry.getNewId());
+                            }
+                            wsOnly += BlobLineIndex.countWhitespaceOnlyPairs(a, edit.getBeginA(), edit.getEndA(), b, edit.getBeginB(), edit.getEndB());
+                        }
                     }
-
-                    int insWs = 0;
-                    int delWs = 0;
-                    for (Edit edit : dfWs.toFileHeader(entry).toEditList()) {
-                        insWs += edit.getEndB() - edit.getBeginB();
-                        delWs += edit.getEndA() - edit.getBeginA();
+                    stat = DiffStat.of(ins, del).withWhitespace(wsOnly, wsOnly).merge(stat);
+                    if (cacheable) {
+                        diffStatCache.put(entry.getOldId().toObjectId(), entry.getNewId().toObjectId(), algorithm, stat);
                     }
-
-                    totalIns += ins;
-                    totalDel += del;
-                    // Churn is the difference between normal diff and whitespace-ignored diff
-                    totalWsIns += (ins - insWs);
-                    totalWsDel += (del - delWs);
-
-                    allFileChanges.add(new FileChange(path, ins, del, category, entry.getChangeType().name(), "", creators.getOrDefault(path, "Unknown")));
-                    
-                    MeaningfulChangeAnalysis.CategoryMetrics cm = categoryMap.get(category);
-                    categoryMap.put(category, new MeaningfulChangeAnalysis.CategoryMetrics(
-                        cm.fileCount() + 1, cm.insertions() + ins, cm.deletions() + del));
                 }
+                int ins = stat.insertions();
+                int del = stat.deletions();
+
+                totalIns += ins;
+                totalDel += del;
+                totalWsIns += stat.whitespaceOnlyInsertions();
+                totalWsDel += stat.whitespaceOnlyDeletions();
+
+                allFileChanges.add(new FileChange(path, ins, del, category, entry.getChangeType().name(), "", creators.getOrDefault(path, "Unknown")));
+                
+                MeaningfulChangeAnalysis.CategoryMetrics cm = categoryMap.get(category);
+                categoryMap.put(category, new MeaningfulChangeAnalysis.CategoryMetrics(
+                    cm.fileCount() + 1, cm.insertions() + ins, cm.deletions() + del));
             }
+        } finally {
+            diffStatCache.flush();
+        }
 
-            List<FileChange> top20 = allFileChanges.stream()
-                .sorted(Comparator.comparingInt(FileChange::getTotalChange).reversed())
-                .limit(20)
-                .toList();
+        List<FileChange> top20 = allFileChanges.stream()
+            .sorted(Comparator.comparingInt(FileChange::getTotalChange).reversed())
+            .limit(20)
+            .toList();
 
-            List<String> warnings = generateWarnings(categoryMap, totalIns);
-            double score = calculateMeaningfulScore(categoryMap, totalIns);
-            String summary = generateSummary(range, totalIns, totalDel, categoryMap, warnings);
+        List<String> warnings = generateWarnings(categoryMap, totalIns);
+        double score = calculateMeaningfulScore(categoryMap, totalIns);
+        String summary = generateSummary(range, totalIns, totalDel, categoryMap, warnings);
 
-            return new MeaningfulChangeAnalysis(
-                range, dateRange, totalIns, totalDel, totalWsIns + totalWsDel,
-                top20, categoryMap, warnings, summary, score
-            );
+        return new MeaningfulChangeAnalysis(
+            range, dateRange, totalIns, totalDel, totalWsIns + totalWsDel,
+            top20, categoryMap, warnings, summary, score
+        );
+    }
+
+    private BlobLineIndex normalizedLineIndex(Repository repository, org.eclipse.jgit.lib.AbbreviatedObjectId id) {
+        try {
+            if (!id.isComplete() || id.toObjectId().equals(ObjectId.zeroId())) return null;
+            return BlobLineIndex.of(repository.open(id.toObjectId()).getCachedBytes(largeBlobThreshold), true);
+        } catch (Exception e) {
+            return null;
         }
     }
 
@@ -242,38 +432,7 @@ public class GitService {
     }
 
     private String categorizePath(String path, Repository repository) {
-        String lowerPath = path.toLowerCase();
-        if (lowerPath.contains("test/") || lowerPath.contains("tests/") || lowerPath.contains("__tests__") || lowerPath.endsWith("test.java") || lowerPath.endsWith("spec.js")) return "Tests";
-        if (lowerPath.endsWith(".css") || lowerPath.endsWith(".scss") || lowerPath.endsWith(".sass") || lowerPath.endsWith(".less")) return "Styling";
-        
-        if (lowerPath.startsWith("src/") || lowerPath.startsWith("app/") || lowerPath.startsWith("lib/") || lowerPath.contains("backend/") || lowerPath.contains("frontend/")) {
-            if (lowerPath.endsWith(".vue") || lowerPath.endsWith(".jsx") || lowerPath.endsWith(".tsx")) {
-                if (repository != null) {
-                    // Try to see if it's mostly styling
-                    try {
-                        byte[] data = repository.open(repository.resolve("HEAD:" + path)).getBytes();
-                        String content = new String(data);
-                        if (content.contains("<style") || content.contains("styled-components") || content.contains("className=")) {
-                             // This is still a bit weak, but it's "seeing into" the file.
-                             // Let's count it as styling if it has a lot of style related tags and is in a frontend dir.
-                             if (content.split("<style").length > 1 || content.split("className=").length > 5) {
-                                 // Simple heuristic: many classes or a style block
-                                 return "Styling";
-                             }
-                        }
-                    } catch (Exception e) {
-                        // ignore and fallback
-                    }
-                }
-            }
-            return "Source Code";
-        }
-        if (lowerPath.startsWith("dist/") || lowerPath.startsWith("build/") || lowerPath.contains(".next/") || lowerPath.contains(".nuxt/") || lowerPath.contains("coverage/")) return "Generated/Artifacts";
-        if (lowerPath.endsWith("package-lock.json") || lowerPath.endsWith("yarn.lock") || lowerPath.endsWith("pnpm-lock.yaml") || lowerPath.endsWith("requirements.txt") || lowerPath.endsWith("pom.xml")) return "Lockfiles";
-        if (lowerPath.endsWith(".map") || lowerPath.endsWith(".min.js") || lowerPath.endsWith(".min.css")) return "Sourcemaps/Minified";
-        if (lowerPath.endsWith(".json") || lowerPath.endsWith(".yml") || lowerPath.endsWith(".yaml") || lowerPath.endsWith(".toml") || lowerPath.endsWith(".xml")) return "Config/Data";
-        if (lowerPath.endsWith(".md") || lowerPath.endsWith(".txt") || lowerPath.endsWith(".pdf") || lowerPath.endsWith(".doc") || lowerPath.endsWith(".docx")) return "Documentation";
-        return "Other";
+        return pathClassifier.categorize(path, repository);
     }
 
     private List<String> generateWarnings(Map<String, MeaningfulChangeAnalysis.CategoryMetrics> map, int totalIns) {
@@ -327,100 +486,537 @@ public class GitService {
     }
 
     public List<ContributorStats> getContributorStats(File repoPath, Map<String, String> aliases, Map<String, String> genders, Set<String> ignoredExtensions, Set<String> ignoredFolders, String requiredFeatures) throws Exception {
-        try (Git git = Git.open(repoPath)) {
+        return getContributorStats(repoPath, aliases, genders, ignoredExtensions, ignoredFolders, requiredFeatures, null);
+    }
+
+    // Streaming variant: snapshots of the stats so far are published to the subscriber while the walk runs
+    public List<ContributorStats> getContributorStats(File repoPath, Map<String, String> aliases, Map<String, String> genders, Set<String> ignoredExtensions, Set<String> ignoredFolders, String requiredFeatures, Flow.Subscriber<? super AnalysisProgress> subscriber) throws Exception {
+        AnalysisScope scope = this.scope;
+        try (Git git = openGit(repoPath);
+             ProgressPublisher progress = new ProgressPublisher(subscriber, requiredFeatures)) {
+            ContributorStatsCollector stats = new ContributorStatsCollector(aliases, genders, ignoredExtensions, ignoredFolders);
             Repository repository = git.getRepository();
-            Map<String, StatsBuilder> statsMap = new HashMap<>();
+            if (progress.isActive()) {
+                try (RevWalk walk = scopedWalk(repository, scope)) {
+                    progress.track(stats, null, countCommits(walk));
+                }
+            }
+            try (RevWalk walk = scopedWalk(repository, scope)) {
+                newScopedEngine(repository, scope).run(walk, List.of(stats, progress));
+            }
+            progress.finish();
+            return stats.results(requiredFeatures);
+        }
+    }
+
+    public RepositoryAnalysis analyzeRepository(File repoPath, Map<String, String> aliases, Map<String, String> genders, Set<String> ignoredExtensions, Set<String> ignoredFolders, String requiredFeatures, int commitLimit, String mainBranchName) throws Exception {
+        return analyzeRepository(repoPath, aliases, genders, ignoredExtensions, ignoredFolders, requiredFeatures, commitLimit, mainBranchName, null, null);
+    }
 
-            Iterable<RevCommit> commits = git.log().all().call();
-            Set<String> processedCommits = new HashSet<>();
-            for (RevCommit commit : commits) {
-                if (!processedCommits.add(commit.getName())) {
-                    continue;
+    public RepositoryAnalysis analyzeRepository(File repoPath, Map<String, String> aliases, Map<String, String> genders, Set<String> ignoredExtensions, Set<String> ignoredFolders, String requiredFeatures, int commitLimit, String mainBranchName, AnalysisBaseline baseline) throws Exception {
+        return analyzeRepository(repoPath, aliases, genders, ignoredExtensions, ignoredFolders, requiredFeatures, commitLimit, mainBranchName, baseline, null);
+    }
+
+    /**
+     * Runs every collector the repository view needs over a single walk of the history.
+     * With a usable baseline only the commits added since its ref tips are diffed for contributor stats;
+     * the stored per-commit facts are folded in after them.
+     * A subscriber, if given, receives progress snapshots while the contributor stats are being computed.
+     * Branch ownership, file provenance, the commit count and the initial commit are read beside the main walk,
+     * each with its own walk and reader on the same open repository. The first failure fails the whole call,
+     * and interrupting the calling thread stops every phase. The scope is read once, so every walk sees the same
+     * one and the returned settings key describes the facts actually collected.
+     */
+    public RepositoryAnalysis analyzeRepository(File repoPath, Map<String, String> aliases, Map<String, String> genders, Set<String> ignoredExtensions, Set<String> ignoredFolders, String requiredFeatures, int commitLimit, String mainBranchName, AnalysisBaseline baseline, Flow.Subscriber<? super AnalysisProgress> subscriber) throws Exception {
+        AnalysisScope scope = this.scope;
+        try (Git git = openGit(repoPath);
+             ProgressPublisher progress = new ProgressPublisher(subscriber, requiredFeatures);
+             AnalysisPhases phases = new AnalysisPhases()) {
+            Repository repository = git.getRepository();
+            HistoryEngine engine = newScopedEngine(repository, scope);
+            String settingsKey = analysisSettingsKey(ignoredExtensions, ignoredFolders, scope, engine.getBlobGuard().threshold());
+            Future<Map<ObjectId, String>> commitToBranch = phases.submit(() -> mapCommitsToBranches(git, repository, mainBranchName));
+            Future<Map<String, FileProvenance>> provenance = phases.submit(() -> fileProvenance(repoPath, git));
+            Map<String, String> refTips = readRefTips(repository);
+            // Stored facts cover the whole history, a narrower scope is always analyzed in full
+            boolean incremental = baseline != null && scope.isAll()
+                    && settingsKey.equals(baseline.settingsKey())
+                    && isFastForward(repository, baseline.refTips(), refTips);
+            // The shared pass only sees the whole history when nothing narrows it
+            Future<CommitInfo> initialCommit = !incremental && scope.isAll() ? null : phases.submit(() -> findInitialCommit(repository, aliases));
+            Future<Integer> totalCommits = null;
+            if (progress.isActive()) {
+                totalCommits = phases.submit(() -> {
+                    try (RevWalk walk = incremental ? newCommitsWalk(repository, refTips, baseline.refTips()) : scopedWalk(repository, scope)) {
+                        return countCommits(walk);
+                    }
+                });
+            }
+
+            ContributorStatsCollector stats = new ContributorStatsCollector(aliases, genders, ignoredExtensions, ignoredFolders);
+            stats.recordFiles = true;
+            CommitRowCollector rows = new CommitRowCollector(commitLimit, aliases, await(commitToBranch));
+            InitialCommitCollector initial = new InitialCommitCollector(aliases);
+            RangeCollector range = new RangeCollector(commitLimit);
+
+            if (incremental) {
+                if (totalCommits != null) progress.track(stats, null, await(totalCommits));
+                try (RevWalk walk = newCommitsWalk(repository, refTips, baseline.refTips())) {
+                    engine.run(walk, List.of(stats, progress));
                 }
-                String email = commit.getAuthorIdent().getEmailAddress();
-                String name = commit.getAuthorIdent().getName();
-                
-                String targetName = aliases.getOrDefault(email, name);
-                String gender = genders.getOrDefault(email, genders.getOrDefault(targetName, "unknown"));
-                
-                StatsBuilder builder = statsMap.computeIfAbsent(targetName, k -> new StatsBuilder(targetName, email, gender));
-                
-                boolean isMerge = commit.getParentCount() > 1;
-                if (isMerge) {
-                    builder.mergeCount++;
-                } else {
-                    builder.commitCount++;
+                // New commits are newer than everything stored, so they are folded first as in a full walk
+                baseline.contributions().forEach(stats::add);
+                // Rows and range only need the newest commits, the walk stops once they are complete
+                try (RevWalk walk = scopedWalk(repository, scope)) {
+                    engine.run(walk, List.of(rows, range));
+                }
+                progress.track(stats, rows, progress.totalCommits);
+            } else {
+                if (totalCommits != null) progress.track(stats, rows, await(totalCommits));
+                try (RevWalk walk = scopedWalk(repository, scope)) {
+                    engine.run(walk, List.of(stats, rows, initial, range, progress));
                 }
+            }
+            progress.finish();
+            CommitInfo initialRow = initialCommit == null ? initial.result(engine) : await(initialCommit);
+
+            MeaningfulChangeAnalysis meaningfulChangeAnalysis = analyzeRange(repository, range, ignoredFolders, creators(await(provenance), null), engine.getBlobGuard(), scope);
+            return new RepositoryAnalysis(
+                    stats.results(requiredFeatures),
+                    rows.rows,
+                    initialRow,
+                    meaningfulChangeAnalysis,
+                    incremental,
+                    refTips,
+                    stats.analyzed,
+                    engine.skippedBlobs(),
+                    settingsKey
+            );
+        }
+    }
 
-                int linesAddedBefore = builder.linesAdded;
-                int linesDeletedBefore = builder.linesDeleted;
-                int blankAddedBefore = builder.blankLinesAdded;
-                int blankDeletedBefore = builder.blankLinesDeleted;
+    /**
+     * Threads for the reads analyzeRepository runs beside its main walk. Closing interrupts whatever still runs
+     * after a failure or cancellation, and waits until it has let go of the repository.
+     */
+    private static final class AnalysisPhases implements AutoCloseable {
+        private final ExecutorService pool = Executors.newFixedThreadPool(ANALYSIS_PHASES);
 
-                RevCommit parent = commit.getParentCount() > 0 ? commit.getParent(0) : null;
-                
-                // For merge commits, we don't want to attribute all the merged LOC to the person who clicked merge
-                // because it skews the "lines added per commit" metric significantly.
-                // We still want to see what was touched for context, but LOC should be handled carefully.
-                // However, we DO want to see what was actually changed IN the merge itself (like conflict resolution).
-                // Diffing a merge against its FIRST parent (the branch it was merged INTO) usually shows all 
-                // changes brought in by the other branch. This is what we want to avoid for contributor stats.
-                if (!isMerge) {
-                    analyzeDiff(repository, parent, commit, builder, ignoredExtensions, ignoredFolders, null);
-                } else {
-                    // For merge commits, we don't add the LOC to their total to avoid skewing.
-                }
-                
-                int linesAdded = builder.linesAdded - linesAddedBefore;
-                int linesDeleted = builder.linesDeleted - linesDeletedBefore;
-                int blankAdded = builder.blankLinesAdded - blankAddedBefore;
-                int blankDeleted = builder.blankLinesDeleted - blankDeletedBefore;
-
-                if (!isMerge && linesAdded == 0 && linesDeleted == 0) {
-                    builder.meaninglessCommits++;
-                } else if (!isMerge && (linesAdded > 0 || linesDeleted > 0)) {
-                    // If almost everything is blank lines, consider it meaningless
-                    if (linesAdded > 0 && blankAdded >= linesAdded * 0.9) {
-                        builder.meaninglessCommits++;
-                    }
+        <T> Future<T> submit(Callable<T> phase) {
+            return pool.submit(phase);
+        }
+
+        @Override
+        public void close() {
+            pool.shutdownNow();
+            pool.close();
+        }
+    }
+
+    // Result of a phase running beside the main walk; its failure is rethrown as this call's own
+    private static <T> T await(Future<T> phase) throws Exception {
+        try {
+            return phase.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    // Commits reachable from the current tips but not from the ones of a previous run, newest first
+    private RevWalk newCommitsWalk(Repository repository, Map<String, String> tips, Map<String, String> previousTips) throws IOException {
+        RevWalk walk = readHeadersFromCommitGraph(new RevWalk(repository));
+        for (String tip : new HashSet<>(tips.values())) {
+            walk.markStart(walk.parseCommit(ObjectId.fromString(tip)));
+        }
+        for (String tip : new HashSet<>(previousTips.values())) {
+            walk.markUninteresting(walk.parseCommit(ObjectId.fromString(tip)));
+        }
+        return walk;
+    }
+
+    // Stored per-commit facts depend on these settings; a different key forces a full run
+    public String analysisSettingsKey(Set<String> ignoredExtensions, Set<String> ignoredFolders) {
+        return analysisSettingsKey(ignoredExtensions, ignoredFolders, scope, largeBlobThreshold);
+    }
+
+    private static String analysisSettingsKey(Set<String> ignoredExtensions, Set<String> ignoredFolders, AnalysisScope scope, int largeBlobThreshold) {
+        // The version changes when the stored facts gain a field, so older baselines are rebuilt once
+        String key = "v2;ext=" + new TreeSet<>(ignoredExtensions) + ";folders=" + new TreeSet<>(ignoredFolders);
+        // Oversized blobs count differently, facts from another limit are not reused
+        if (largeBlobThreshold != BlobGuard.DEFAULT_THRESHOLD) key += ";blobLimit=" + largeBlobThreshold;
+        // Facts from a scoped run are never a baseline for a full one
+        return scope.isAll() ? key : key + ";scope=" + scope;
+    }
+
+    // Peeled commit id of every ref, as LogCommand.all() would start from
+    private Map<String, String> readRefTips(Repository repository) throws IOException {
+        Map<String, String> tips = new HashMap<>();
+        try (RevWalk walk = readHeadersFromCommitGraph(new RevWalk(repository))) {
+            for (Ref ref : repository.getRefDatabase().getRefs()) {
+                if (!ref.isPeeled()) ref = repository.getRefDatabase().peel(ref);
+                ObjectId id = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+                if (id == null) continue;
+                try {
+                    tips.put(ref.getName(), walk.parseCommit(id).getName());
+                } catch (MissingObjectException | IncorrectObjectTypeException e) {
+                    // not a commit, not a starting point
                 }
-                
-                // Risk assessment for tests: Check if any file changed by this contributor was a test
-                boolean touchedTests = false;
-                try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-                    df.setRepository(repository);
-                    List<DiffEntry> diffs = df.scan(parent != null ? parent.getTree() : null, commit.getTree());
-                    for (DiffEntry entry : diffs) {
-                        String path = entry.getNewPath() != null ? entry.getNewPath() : entry.getOldPath();
-                        if ("Tests".equals(categorizePath(path))) {
-                            touchedTests = true;
-                            break;
-                        }
-                    }
-                } catch (IOException e) {
-                    // ignore
+            }
+        }
+        return tips;
+    }
+
+    // Stored facts are only reusable if no ref was deleted or rewritten since the baseline
+    private boolean isFastForward(Repository repository, Map<String, String> oldTips, Map<String, String> newTips) throws IOException {
+        if (oldTips == null || oldTips.isEmpty()) return false;
+        try (RevWalk walk = readHeadersFromCommitGraph(new RevWalk(repository))) {
+            for (Map.Entry<String, String> old : oldTips.entrySet()) {
+                String current = newTips.get(old.getKey());
+                if (current == null) return false;
+                if (current.equals(old.getValue())) continue;
+                try {
+                    RevCommit oldTip = walk.parseCommit(ObjectId.fromString(old.getValue()));
+                    RevCommit newTip = walk.parseCommit(ObjectId.fromString(current));
+                    if (!walk.isMergedInto(oldTip, newTip)) return false;
+                } catch (MissingObjectException e) {
+                    return false;
                 }
-                if (touchedTests) {
-                    builder.touchedTests = true;
+                walk.reset();
+            }
+        }
+        return true;
+    }
+
+    private String resolveAuthor(RevCommit commit, Map<String, String> aliases) {
+        String authorEmail = commit.getAuthorIdent().getEmailAddress();
+        String authorName = commit.getAuthorIdent().getName();
+        return aliases != null ? aliases.getOrDefault(authorEmail, authorName) : authorName;
+    }
+
+    private class ContributorStatsCollector implements HistoryEngine.Collector<CommitContribution> {
+        private final Map<String, String> aliases;
+        private final Map<String, String> genders;
+        private final Set<String> ignoredExtensions;
+        private final Set<String> ignoredFolders;
+        private final Map<String, StatsBuilder> statsMap = new HashMap<>();
+        // Facts of the commits diffed by this run, so they can be stored for the next incremental run
+        final List<CommitContribution> analyzed = new ArrayList<>();
+        // Whether the facts list every file the commit changed, for the file_changes table
+        boolean recordFiles;
+        // Per run, so the paths of every repository analyzed before are not kept alive
+        private final PathDictionary pathDictionary = new PathDictionary();
+
+        ContributorStatsCollector(Map<String, String> aliases, Map<String, String> genders, Set<String> ignoredExtensions, Set<String> ignoredFolders) {
+            this.aliases = aliases;
+            this.genders = genders;
+            // Lowercased once here instead of for every file
+            this.ignoredExtensions = ignoredExtensions.stream().map(String::toLowerCase).collect(Collectors.toSet());
+            this.ignoredFolders = ignoredFolders;
+        }
+
+        // Builds the contribution of a single commit; fold() adds it to the contributor's totals
+        @Override
+        public CommitContribution analyze(HistoryEngine.CommitDiff diff) throws IOException {
+            RevCommit commit = diff.commit();
+            String email = commit.getAuthorIdent().getEmailAddress();
+            String name = commit.getAuthorIdent().getName();
+
+            StatsBuilder delta = new StatsBuilder(name, email, null);
+            if (recordFiles) delta.files = new ArrayList<>();
+
+            boolean isMerge = commit.getParentCount() > 1;
+
+            // For merge commits, we don't want to attribute all the merged LOC to the person who clicked merge
+            // because it skews the "lines added per commit" metric significantly.
+            // Diffing a merge against its FIRST parent (the branch it was merged INTO) usually shows all
+            // changes brought in by the other branch. This is what we want to avoid for contributor stats.
+            if (!isMerge) {
+                analyzeDiff(diff, delta, ignoredExtensions, ignoredFolders, pathDictionary);
+            }
+
+            int linesAdded = delta.linesAdded;
+            int linesDeleted = delta.linesDeleted;
+            int blankAdded = delta.blankLinesAdded;
+
+            boolean meaningless = false;
+            if (!isMerge && linesAdded == 0 && linesDeleted == 0) {
+                meaningless = true;
+            } else if (!isMerge && (linesAdded > 0 || linesDeleted > 0)) {
+                // If almost everything is blank lines, consider it meaningless
+                if (linesAdded > 0 && blankAdded >= linesAdded * 0.9) {
+                    meaningless = true;
                 }
+            }
 
-                // Track files changed for AI heuristic (rough estimate based on language breakdown change)
-                // Actually, analyzeDiff doesn't give us files changed easily here without more state.
-                // Let's use a simple version.
-                double aiProb = calculateAIProbability(commit, linesAdded, linesDeleted, 0); // filesChanged set to 0 for now as proxy
-                builder.totalAiProbability += aiProb;
+            // Risk assessment for tests: Check if any file changed by this contributor was a test
+            boolean touchedTests = false;
+            try {
+                for (DiffEntry entry : diff.entries()) {
+                    String path = entry.getNewPath() != null ? entry.getNewPath() : entry.getOldPath();
+                    if ("Tests".equals(categorizePath(path))) {
+                        touchedTests = true;
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // ignore
             }
 
+            // filesChanged set to 0 for now as proxy
+            double aiProb = calculateAIProbability(commit, linesAdded, linesDeleted, 0);
+
+            return new CommitContribution(commit.getName(), commit.getCommitTime(), name, email, isMerge,
+                    linesAdded, linesDeleted, delta.blankLinesAdded, delta.blankLinesDeleted, meaningless,
+                    delta.generatedFilesPushed, delta.documentationLinesAdded,
+                    delta.filesAdded, delta.filesEdited, delta.filesDeleted, touchedTests, aiProb,
+                    delta.languages.asMap(pathDictionary), delta.directories.asMap(pathDictionary),
+                    delta.files != null ? delta.files : List.of());
+        }
+
+        @Override
+        public void fold(RevCommit commit, CommitContribution contribution) {
+            analyzed.add(contribution);
+            add(contribution);
+        }
+
+        // Aliases and genders are applied here rather than in analyze(), so stored facts stay valid when they change
+        void add(CommitContribution contribution) {
+            String email = contribution.authorEmail();
+            String targetName = aliases.getOrDefault(email, contribution.authorName());
+            String gender = genders.getOrDefault(email, genders.getOrDefault(targetName, "unknown"));
+            statsMap.computeIfAbsent(targetName, k -> new StatsBuilder(targetName, email, gender)).add(contribution, pathDictionary);
+        }
+
+        List<ContributorStats> results(String requiredFeatures) {
             return statsMap.values().stream()
                     .map(b -> {
                         double mScore = calculateMeaningfulScoreForContributor(b, requiredFeatures);
-                        return b.build(mScore);
+                        return b.build(mScore, pathDictionary);
                     })
                     .sorted(Comparator.comparingInt(ContributorStats::commitCount).reversed())
                     .toList();
         }
     }
 
+    // Newest and oldest commit of the latest `limit` commits, used for the meaningful change range
+    private static class RangeCollector implements HistoryEngine.Collector<Void> {
+        private final int limit;
+        RevCommit newest;
+        RevCommit oldest;
+        int count;
+
+        RangeCollector(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public Void analyze(HistoryEngine.CommitDiff diff) {
+            return null;
+        }
+
+        @Override
+        public void fold(RevCommit commit, Void fact) {
+            if (newest == null) newest = commit;
+            oldest = commit;
+            count++;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return limit > 0 && count >= limit;
+        }
+    }
+
+    private int countCommits(Iterable<RevCommit> commits) {
+        int count = 0;
+        for (RevCommit ignored : commits) count++;
+        return count;
+    }
+
+    /**
+     * Publishes a snapshot of the tracked stats every PROGRESS_INTERVAL commits. It runs as the last collector,
+     * so it always sees the other collectors' folds for the current commit. SubmissionPublisher.submit blocks
+     * while the subscriber's buffer is full, which holds the walk back when the consumer is slower.
+     */
+    private class ProgressPublisher implements HistoryEngine.Collector<Void>, AutoCloseable {
+        private static final int PROGRESS_INTERVAL = 250;
+
+        private final SubmissionPublisher<AnalysisProgress> publisher;
+        private final String requiredFeatures;
+        private final long started = System.currentTimeMillis();
+        private ContributorStatsCollector stats;
+        private CommitRowCollector rows;
+        private int totalCommits;
+        private int processed;
+        private int publishedRows;
+        private boolean finished;
+
+        ProgressPublisher(Flow.Subscriber<? super AnalysisProgress> subscriber, String requiredFeatures) {
+            this.requiredFeatures = requiredFeatures;
+            if (subscriber != null) {
+                publisher = new SubmissionPublisher<>();
+                publisher.subscribe(subscriber);
+            } else {
+                publisher = null;
+            }
+        }
+
+        boolean isActive() {
+            return publisher != null;
+        }
+
+        void track(ContributorStatsCollector stats, CommitRowCollector rows, int totalCommits) {
+            this.stats = stats;
+            this.rows = rows;
+            this.totalCommits = totalCommits;
+        }
+
+        @Override
+        public Void analyze(HistoryEngine.CommitDiff diff) {
+            return null;
+        }
+
+        @Override
+        public void fold(RevCommit commit, Void fact) {
+            if (++processed % PROGRESS_INTERVAL == 0) publish(false);
+        }
+
+        @Override
+        public boolean isComplete() {
+            return publisher == null;
+        }
+
+        void finish() {
+            publish(true);
+            finished = true;
+        }
+
+        private void publish(boolean finished) {
+            if (publisher == null || stats == null) return;
+            List<CommitInfo> newRows = List.of();
+            if (rows != null && rows.rows.size() > publishedRows) {
+                newRows = List.copyOf(rows.rows.subList(publishedRows, rows.rows.size()));
+                publishedRows = rows.rows.size();
+            }
+            publisher.submit(new AnalysisProgress(finished ? Math.max(processed, totalCommits) : processed, totalCommits,
+                    System.currentTimeMillis() - started, stats.results(requiredFeatures), newRows, finished));
+        }
+
+        @Override
+        public void close() {
+            if (publisher == null) return;
+            if (finished) {
+                publisher.close();
+            } else {
+                // The walk failed before producing a final snapshot
+                publisher.closeExceptionally(new java.util.concurrent.CancellationException("Analysis did not complete"));
+            }
+        }
+    }
+
+    /**
+     * Creating commit of every path that was ever added. With a database the index is stored and only the
+     * commits added since the last build are diffed, unless a ref was deleted or rewritten.
+     */
+    private Map<String, FileProvenance> fileProvenance(File repoPath, Git git) throws Exception {
+        Repository repository = git.getRepository();
+        if (databaseService == null) {
+            FileProvenanceCollector collector = new FileProvenanceCollector();
+            newEngine(repository).run(git.log().all().call(), List.of(collector));
+            return collector.provenance;
+        }
+
+        String repoId = repoKey(repoPath);
+        Map<String, String> refTips = readRefTips(repository);
+        Map<String, String> storedTips = databaseService.getProvenanceTips(repoId);
+        if (refTips.equals(storedTips)) {
+            return databaseService.getFileProvenance(repoId);
+        }
+
+        FileProvenanceCollector collector = new FileProvenanceCollector();
+        if (isFastForward(repository, storedTips, refTips)) {
+            Map<String, FileProvenance> provenance = databaseService.getFileProvenance(repoId);
+            try (RevWalk walk = newCommitsWalk(repository, refTips, storedTips)) {
+                newEngine(repository).run(walk, List.of(collector));
+            }
+            // A path keeps its stored creation unless one of the new commits is older
+            List<FileProvenance> changed = new ArrayList<>();
+            for (FileProvenance found : collector.provenance.values()) {
+                FileProvenance stored = provenance.get(found.path());
+                if (stored == null || found.commitTime() < stored.commitTime()) {
+                    provenance.put(found.path(), found);
+                    changed.add(found);
+                }
+            }
+            databaseService.saveFileProvenance(repoId, refTips, changed, false);
+            return provenance;
+        }
+
+        newEngine(repository).run(git.log().all().call(), List.of(collector));
+        databaseService.saveFileProvenance(repoId, refTips, collector.provenance.values(), true);
+        return collector.provenance;
+    }
+
+    // Short id of the creating commit per path
+    private Map<String, String> creationCommits(Map<String, FileProvenance> provenance) {
+        Map<String, String> map = new HashMap<>();
+        provenance.forEach((path, p) -> map.put(path, p.commitHash().substring(0, 7)));
+        return map;
+    }
+
+    private Map<String, String> creators(Map<String, FileProvenance> provenance, Map<String, String> aliases) {
+        Map<String, String> map = new HashMap<>();
+        provenance.forEach((path, p) -> map.put(path, aliases != null ? aliases.getOrDefault(p.authorEmail(), p.authorName()) : p.authorName()));
+        return map;
+    }
+
+    // Paths added by each commit. The walk runs newest first, so the last write is the oldest ADD.
+    private static class FileProvenanceCollector implements HistoryEngine.Collector<List<FileProvenance>> {
+        final Map<String, FileProvenance> provenance = new HashMap<>();
+
+        @Override
+        public List<FileProvenance> analyze(HistoryEngine.CommitDiff diff) throws IOException {
+            List<DiffEntry> entries = diff.entries();
+            boolean hasAdd = false;
+            boolean hasDelete = false;
+            for (DiffEntry entry : entries) {
+                hasAdd |= entry.getChangeType() == DiffEntry.ChangeType.ADD;
+                hasDelete |= entry.getChangeType() == DiffEntry.ChangeType.DELETE;
+            }
+            if (!hasAdd) return null;
+
+            // A rename shows up as an ADD and a DELETE, only then is rename detection worth running
+            Map<String, String> renamedFrom = new HashMap<>();
+            if (hasDelete) {
+                for (DiffEntry entry : diff.renamedEntries()) {
+                    if (entry.getChangeType() == DiffEntry.ChangeType.RENAME) {
+                        renamedFrom.put(entry.getNewPath(), entry.getOldPath());
+                    }
+                }
+            }
+
+            RevCommit commit = diff.commit();
+            List<FileProvenance> added = new ArrayList<>();
+            for (DiffEntry entry : entries) {
+                if (entry.getChangeType() == DiffEntry.ChangeType.ADD) {
+                    added.add(new FileProvenance(entry.getNewPath(), commit.getName(), commit.getCommitTime(),
+                            commit.getAuthorIdent().getName(), commit.getAuthorIdent().getEmailAddress(),
+                            renamedFrom.get(entry.getNewPath())));
+                }
+            }
+            return added;
+        }
+
+        @Override
+        public void fold(RevCommit commit, List<FileProvenance> added) {
+            if (added == null) return;
+            for (FileProvenance p : added) {
+                provenance.put(p.path(), p);
+            }
+        }
+    }
+
     private double calculateMeaningfulScoreForContributor(StatsBuilder b, String requiredFeatures) {
         if (b.linesAdded == 0 && b.linesDeleted == 0) return 0.0;
         
@@ -472,130 +1068,73 @@ public class GitService {
         return Math.max(0, Math.min(100, score));
     }
 
-    private void analyzeDiff(Repository repository, RevCommit parent, RevCommit commit, StatsBuilder builder, Set<String> ignoredExtensions, Set<String> ignoredFolders, Map<String, Integer> commitLanguages) throws IOException {
-        try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-            df.setRepository(repository);
-            df.setDiffComparator(RawTextComparator.DEFAULT);
-            df.setDetectRenames(true);
+    // ignoredExtensions must already be lowercase
+    private void analyzeDiff(HistoryEngine.CommitDiff diff, StatsBuilder builder, Set<String> ignoredExtensions, Set<String> ignoredFolders, PathDictionary pathDictionary) throws IOException {
+        Repository repository = diff.repository();
 
-            List<DiffEntry> diffs;
-            if (parent != null) {
-                diffs = df.scan(parent.getTree(), commit.getTree());
-            } else {
-                // For initial commit, compare against empty tree
-                diffs = df.scan(null, commit.getTree());
+        // For initial commit, the engine compares against the empty tree
+        for (DiffEntry entry : diff.renamedEntries()) {
+            String path = entry.getNewPath();
+            if (path == null || path.equals(DiffEntry.DEV_NULL)) {
+                path = entry.getOldPath();
             }
 
-            for (DiffEntry entry : diffs) {
-                String path = entry.getNewPath();
-                if (path == null || path.equals(DiffEntry.DEV_NULL)) {
-                    path = entry.getOldPath();
-                }
+            PathDictionary.PathKeys keys = null;
+            String category = null;
+            if (path != null && !path.equals(DiffEntry.DEV_NULL)) {
+                if (isIgnoredFolder(path, ignoredFolders)) continue;
 
-                    if (path != null && !path.equals(DiffEntry.DEV_NULL)) {
-                        if (isIgnoredFolder(path, ignoredFolders)) continue;
-                        
-                        // Detect extension first for languages
-                        String lowerPath = path.toLowerCase();
-                        String fileName = path.contains("/") ? path.substring(path.lastIndexOf('/') + 1).toLowerCase() : lowerPath;
-                        
-                        String ext = "";
-                        int lastDot = path.lastIndexOf('.');
-                        if (lastDot > 0) {
-                            ext = path.substring(lastDot + 1).toLowerCase();
-                        }
+                // Extension (or tooling file name) and directory are derived once per distinct path
+                keys = pathDictionary.keys(path);
 
-                        // Special case for config/tooling files that might not have traditional extensions or are important
-                        if (fileName.equals("dockerfile")) ext = "docker";
-                        else if (fileName.equals("cmakelists.txt")) ext = "cmake";
-                        else if (fileName.equals("makefile")) ext = "make";
-                        else if (fileName.equals("jenkinsfile")) ext = "jenkins";
-                        else if (fileName.equals(".env")) ext = "env";
-                        else if (fileName.equals(".gitignore")) ext = "git";
-                        
-                        String category = categorizePath(path, repository);
-                        if ("Generated/Artifacts".equals(category) || "Sourcemaps/Minified".equals(category)) {
-                            builder.generatedFilesPushed++;
-                        }
-                        
-                        if (lowerPath.contains("package-lock.json") || lowerPath.contains("yarn.lock") || lowerPath.contains("pnpm-lock.yaml")) {
-                            // still skip lockfiles from general counts but maybe we want them in language? 
-                            // user said "picking up the other languages like typescript in the projects or config (docker, cmake, etc.)"
-                            // If they are config, they should be counted.
-                        }
+                category = categorizePath(path, repository);
+                if ("Generated/Artifacts".equals(category) || "Sourcemaps/Minified".equals(category)) {
+                    builder.generatedFilesPushed++;
+                }
 
-                        if (!ext.isEmpty()) {
-                            boolean ignored = false;
-                            for (String ignoredExt : ignoredExtensions) {
-                                if (path.toLowerCase().endsWith(ignoredExt.toLowerCase())) {
-                                    ignored = true;
-                                    break;
-                                }
-                            }
-                            if (!ignored) {
-                                builder.languageBreakdown.merge(ext, 1, Integer::sum);
-                                if (commitLanguages != null) {
-                                    commitLanguages.merge(ext, 1, Integer::sum);
-                                }
-                            }
+                if (keys.language() >= 0) {
+                    boolean ignored = false;
+                    for (String ignoredExt : ignoredExtensions) {
+                        if (keys.lowerPath().endsWith(ignoredExt)) {
+                            ignored = true;
+                            break;
                         }
                     }
-
-                // Metric for new, edited, other (deleted)
-                switch (entry.getChangeType()) {
-                    case ADD -> builder.filesAdded++;
-                    case MODIFY -> builder.filesEdited++;
-                    case DELETE -> builder.filesDeleted++;
-                    default -> {} // RENAME, COPY etc as other/edited for now
+                    if (!ignored) {
+                        builder.languages.add(keys.language(), 1);
+                    }
                 }
+            }
 
-                for (Edit edit : df.toFileHeader(entry).toEditList()) {
-                    int added = edit.getEndB() - edit.getBeginB();
-                    int deleted = edit.getEndA() - edit.getBeginA();
-                    builder.linesAdded += added;
-                    builder.linesDeleted += deleted;
-
-                    String category = categorizePath(path, repository);
-                    if ("Documentation".equals(category)) {
-                        builder.documentationLinesAdded += added;
-                    }
+            // Metric for new, edited, other (deleted)
+            switch (entry.getChangeType()) {
+                case ADD -> builder.filesAdded++;
+                case MODIFY -> builder.filesEdited++;
+                case DELETE -> builder.filesDeleted++;
+                default -> {} // RENAME, COPY etc as other/edited for now
+            }
 
-                    // Update directory breakdown
-                    String dirPath = "root";
-                    int lastSlash = path.lastIndexOf('/');
-                    if (lastSlash != -1) {
-                        dirPath = path.substring(0, lastSlash);
-                    }
-                    builder.directoryBreakdown.merge(dirPath, added, Integer::sum);
-
-                    // Detect blank lines
-                    try {
-                        org.eclipse.jgit.lib.ObjectLoader loaderA = entry.getOldId().toObjectId().equals(ObjectId.zeroId()) ? null : repository.open(entry.getOldId().toObjectId());
-                        org.eclipse.jgit.lib.ObjectLoader loaderB = entry.getNewId().toObjectId().equals(ObjectId.zeroId()) ? null : repository.open(entry.getNewId().toObjectId());
-                        
-                        org.eclipse.jgit.diff.RawText aText = loaderA == null ? null : new org.eclipse.jgit.diff.RawText(loaderA.getCachedBytes());
-                        org.eclipse.jgit.diff.RawText bText = loaderB == null ? null : new org.eclipse.jgit.diff.RawText(loaderB.getCachedBytes());
-                        
-                        if (added > 0 && bText != null) {
-                            for (int i = edit.getBeginB(); i < edit.getEndB(); i++) {
-                                String line = bText.getString(i);
-                                if (line == null || line.trim().isEmpty()) {
-                                    builder.blankLinesAdded++;
-                                }
-                            }
-                        }
-                        if (deleted > 0 && aText != null) {
-                            for (int i = edit.getBeginA(); i < edit.getEndA(); i++) {
-                                String line = aText.getString(i);
-                                if (line == null || line.trim().isEmpty()) {
-                                    builder.blankLinesDeleted++;
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        // fallback or ignore if text cannot be loaded
-                    }
+            DiffStat stat = diff.stat(entry, true);
+            if (builder.files != null && path != null && !path.equals(DiffEntry.DEV_NULL)) {
+                if (category == null) category = categorizePath(path, repository);
+                builder.files.add(new CommitFileChange(path, category, entry.getChangeType().name(), stat.insertions(), stat.deletions()));
+            }
+            if (stat.insertions() > 0 || stat.deletions() > 0) {
+                int added = stat.insertions();
+                builder.linesAdded += added;
+                builder.linesDeleted += stat.deletions();
+
+                if (category == null) category = categorizePath(path, repository);
+                if ("Documentation".equals(category)) {
+                    builder.documentationLinesAdded += added;
                 }
+
+                // Update directory breakdown
+                if (keys == null) keys = pathDictionary.keys(path);
+                builder.directories.add(keys.directory(), added);
+
+                builder.blankLinesAdded += stat.blankLinesAdded();
+                builder.blankLinesDeleted += stat.blankLinesDeleted();
             }
         }
     }
@@ -658,340 +1197,463 @@ public class GitService {
     }
 
     public List<CommitInfo> getLastCommits(File repoPath, int limit, Map<String, String> aliases, String mainBranchName) throws Exception {
-        try (Git git = Git.open(repoPath)) {
+        AnalysisScope scope = this.scope;
+        try (Git git = openGit(repoPath)) {
             Repository repository = git.getRepository();
-            var logCommand = git.log().all(); // Use .all() to include branch commits
-            if (limit > 0) {
-                logCommand.setMaxCount(limit);
+            Map<ObjectId, String> commitToBranch = mapCommitsToBranches(git, repository, mainBranchName);
+            CommitRowCollector rows = new CommitRowCollector(limit, aliases, commitToBranch);
+            try (RevWalk walk = scopedWalk(repository, scope)) {
+                newScopedEngine(repository, scope).run(walk, List.of(rows));
             }
-            Iterable<RevCommit> commits = logCommand.call();
-            List<CommitInfo> result = new ArrayList<>();
-
-            // Pre-calculate branch mappings
-            Map<ObjectId, String> commitToBranch = new HashMap<>();
-            List<org.eclipse.jgit.lib.Ref> branches = git.branchList().setListMode(org.eclipse.jgit.api.ListBranchCommand.ListMode.ALL).call();
-            
-            // Step 1: Identify "Trunk" commits for each main branch.
-            // A commit is on the trunk if it's reachable from a main branch via FIRST parents only.
-            // These should be attributed to the main branch.
-            Set<ObjectId> trunkCommits = new HashSet<>();
-            
-            // Normalize mainBranchName for comparison
-            String normalizedMain = mainBranchName != null ? mainBranchName.trim().toLowerCase() : "";
+            return rows.rows;
+        }
+    }
 
-            for (org.eclipse.jgit.lib.Ref branch : branches) {
-                String fullBranchName = branch.getName();
-                
-                // Skip literal HEAD pointers to avoid attributing commits to a "branch" named HEAD
-                if (fullBranchName.equals("HEAD") || fullBranchName.equals("refs/remotes/origin/HEAD")) {
-                    continue;
-                }
+    /**
+     * Attributes every commit reachable from a branch to one branch name:
+     * commits on the first-parent chain of a main branch belong to that branch, every other commit to the
+     * first branch that reaches it, feature branches sorted before main branches.
+     * Computed in one topological walk; ownership flows from children to parents.
+     */
+    private Map<ObjectId, String> mapCommitsToBranches(Git git, Repository repository, String mainBranchName) throws Exception {
+        List<org.eclipse.jgit.lib.Ref> branches = new ArrayList<>();
+        for (org.eclipse.jgit.lib.Ref branch : git.branchList().setListMode(org.eclipse.jgit.api.ListBranchCommand.ListMode.ALL).call()) {
+            String fullBranchName = branch.getName();
+            // Skip literal HEAD pointers to avoid attributing commits to a "branch" named HEAD
+            if (fullBranchName.equals("HEAD") || fullBranchName.equals("refs/remotes/origin/HEAD")) {
+                continue;
+            }
+            if (branch.getObjectId() != null) branches.add(branch);
+        }
 
-                String branchName = repository.shortenRemoteBranchName(fullBranchName);
-                if (branchName != null && (branchName.equals(fullBranchName) || branchName.startsWith("refs/"))) {
-                    if (fullBranchName.startsWith("refs/heads/")) branchName = fullBranchName.substring(11);
-                    else if (fullBranchName.startsWith("refs/remotes/")) branchName = fullBranchName.substring(13);
-                }
-                if (branchName == null) branchName = fullBranchName;
-                
-                if (branchName.startsWith("refs/heads/")) branchName = branchName.substring(11);
-                if (branchName.startsWith("refs/remotes/")) branchName = branchName.substring(13);
-                
-                boolean isMainBranch;
-                if (!normalizedMain.isEmpty()) {
-                    isMainBranch = branchName.equalsIgnoreCase(normalizedMain) || branchName.equalsIgnoreCase("origin/" + normalizedMain);
-                } else {
-                    isMainBranch = branchName.equalsIgnoreCase("main") || branchName.equalsIgnoreCase("master") || branchName.equalsIgnoreCase("develop") || 
-                                         branchName.equalsIgnoreCase("origin/main") || branchName.equalsIgnoreCase("origin/master") || branchName.equalsIgnoreCase("origin/develop");
-                }
-                
-                if (isMainBranch) {
-                    try (org.eclipse.jgit.revwalk.RevWalk walk = new org.eclipse.jgit.revwalk.RevWalk(repository)) {
-                        RevCommit current = walk.parseCommit(branch.getObjectId());
-                        while (current != null) {
-                            trunkCommits.add(current.getId());
-                            commitToBranch.put(current.getId(), branchName);
-                            walk.parseHeaders(current);
-                            if (current.getParentCount() > 0) {
-                                current = walk.parseCommit(current.getParent(0).getId());
-                            } else {
-                                current = null;
-                            }
-                        }
-                    } catch (Exception e) {}
-                }
+        // Normalize mainBranchName for comparison
+        String normalizedMain = mainBranchName != null ? mainBranchName.trim().toLowerCase() : "";
+
+        // Trunk: when several main branches share a first-parent chain the last one listed wins
+        List<org.eclipse.jgit.lib.Ref> mainBranches = new ArrayList<>();
+        List<String> mainBranchNames = new ArrayList<>();
+        for (org.eclipse.jgit.lib.Ref branch : branches) {
+            String branchName = branchDisplayName(repository, branch.getName());
+            boolean isMainBranch;
+            if (!normalizedMain.isEmpty()) {
+                isMainBranch = branchName.equalsIgnoreCase(normalizedMain) || branchName.equalsIgnoreCase("origin/" + normalizedMain);
+            } else {
+                isMainBranch = branchName.equalsIgnoreCase("main") || branchName.equalsIgnoreCase("master") || branchName.equalsIgnoreCase("develop") ||
+                                     branchName.equalsIgnoreCase("origin/main") || branchName.equalsIgnoreCase("origin/master") || branchName.equalsIgnoreCase("origin/develop");
+            }
+            if (isMainBranch) {
+                mainBranches.add(branch);
+                mainBranchNames.add(branchName);
             }
+        }
 
-            // Step 2: Assign ALL commits to branches, using putIfAbsent.
-            // Feature branches should be processed FIRST so they claim their unique commits.
-            // Feature branches are those NOT in trunkCommits (conceptually).
-            // Sort branches so feature branches are first.
-            branches.sort((b1, b2) -> {
-                String n1 = b1.getName();
-                String n2 = b2.getName();
-                
-                boolean isMain1;
-                boolean isMain2;
-
-                if (!normalizedMain.isEmpty()) {
-                    isMain1 = n1.contains(normalizedMain);
-                    isMain2 = n2.contains(normalizedMain);
-                } else {
-                    isMain1 = n1.contains("main") || n1.contains("master") || n1.contains("develop");
-                    isMain2 = n2.contains("main") || n2.contains("master") || n2.contains("develop");
-                }
-                
-                if (isMain1 && !isMain2) return 1;
-                if (!isMain1 && isMain2) return -1;
-                return n1.compareTo(n2);
-            });
+        // Everything else: feature branches claim their unique commits first
+        List<org.eclipse.jgit.lib.Ref> claimOrder = new ArrayList<>(branches);
+        claimOrder.sort((b1, b2) -> {
+            String n1 = b1.getName();
+            String n2 = b2.getName();
 
-            for (org.eclipse.jgit.lib.Ref branch : branches) {
-                String fullBranchName = branch.getName();
-                
-                // Skip literal HEAD pointers
-                if (fullBranchName.equals("HEAD") || fullBranchName.equals("refs/remotes/origin/HEAD")) {
-                    continue;
-                }
+            boolean isMain1;
+            boolean isMain2;
 
-                String branchName = repository.shortenRemoteBranchName(fullBranchName);
-                if (branchName != null && (branchName.equals(fullBranchName) || branchName.startsWith("refs/"))) {
-                    if (fullBranchName.startsWith("refs/heads/")) branchName = fullBranchName.substring(11);
-                    else if (fullBranchName.startsWith("refs/remotes/")) branchName = fullBranchName.substring(13);
-                }
-                if (branchName == null) branchName = fullBranchName;
-                
-                if (branchName.startsWith("refs/heads/")) branchName = branchName.substring(11);
-                if (branchName.startsWith("refs/remotes/")) branchName = branchName.substring(13);
+            if (!normalizedMain.isEmpty()) {
+                isMain1 = n1.contains(normalizedMain);
+                isMain2 = n2.contains(normalizedMain);
+            } else {
+                isMain1 = n1.contains("main") || n1.contains("master") || n1.contains("develop");
+                isMain2 = n2.contains("main") || n2.contains("master") || n2.contains("develop");
+            }
 
-                Iterable<RevCommit> bCommits = git.log().add(branch.getObjectId()).call();
-                for (RevCommit bCommit : bCommits) {
-                    if (bCommit != null && bCommit.getId() != null) {
-                        commitToBranch.putIfAbsent(bCommit.getId(), branchName);
-                    }
+            if (isMain1 && !isMain2) return 1;
+            if (!isMain1 && isMain2) return -1;
+            return n1.compareTo(n2);
+        });
+        // Display names by claim index; every commit of a ref shares its one string
+        List<String> claimNames = new ArrayList<>(claimOrder.size());
+        for (org.eclipse.jgit.lib.Ref branch : claimOrder) {
+            claimNames.add(branchDisplayName(repository, branch.getName()));
+        }
+
+        Map<ObjectId, String> commitToBranch = new HashMap<>();
+        // Only parents are needed, so with a commit-graph no commit object is inflated
+        try (RevWalk walk = readHeadersFromCommitGraph(new RevWalk(repository))) {
+            walk.sort(org.eclipse.jgit.revwalk.RevSort.TOPO);
+            Map<RevCommit, Ownership> owners = new HashMap<>();
+            for (int i = 0; i < claimOrder.size(); i++) {
+                RevCommit tip = walk.parseCommit(claimOrder.get(i).getObjectId());
+                Ownership ownership = owners.computeIfAbsent(tip, c -> new Ownership());
+                ownership.claim = Math.min(ownership.claim, i);
+                walk.markStart(tip);
+            }
+            for (int i = 0; i < mainBranches.size(); i++) {
+                RevCommit tip = walk.parseCommit(mainBranches.get(i).getObjectId());
+                Ownership ownership = owners.computeIfAbsent(tip, c -> new Ownership());
+                ownership.trunk = Math.max(ownership.trunk, i);
+            }
+
+            // TOPO emits every child before its parents, so a commit's owner is final when it comes out
+            for (RevCommit commit : walk) {
+                Ownership ownership = owners.remove(commit);
+                for (int p = 0; p < commit.getParentCount(); p++) {
+                    Ownership parent = owners.computeIfAbsent(commit.getParent(p), c -> new Ownership());
+                    parent.claim = Math.min(parent.claim, ownership.claim);
+                    if (p == 0) parent.trunk = Math.max(parent.trunk, ownership.trunk);
                 }
+                commitToBranch.put(commit.copy(), ownership.trunk >= 0 ? mainBranchNames.get(ownership.trunk) : claimNames.get(ownership.claim));
             }
+        }
 
-            for (RevCommit commit : commits) {
-                Map<String, Integer> languages = new HashMap<>();
-                int linesAdded = 0;
-                int linesDeleted = 0;
-                int fAdded = 0;
-                int fEdited = 0;
-                int fDeleted = 0;
-                
-                String authorEmail = commit.getAuthorIdent().getEmailAddress();
-                String authorName = commit.getAuthorIdent().getName();
-                String targetName = aliases != null ? aliases.getOrDefault(authorEmail, authorName) : authorName;
-
-                RevCommit parent = commit.getParentCount() > 0 ? commit.getParent(0) : null;
-                try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-                    df.setRepository(repository);
-                    
-                    List<DiffEntry> diffs;
-                    if (commit.getParentCount() > 1) {
-                        // For merge commits, we only want to show what changed in the merge itself (e.g. conflicts)
-                        // This is achieved by comparing against all parents (combined diff) 
-                        // but a simple way to show just the merge-specific changes is harder in JGit.
-                        // Standard practice for 'what's in the merge' is comparing against FIRST parent,
-                        // which shows everything from the merged branch.
-                        // If we want to include branch commits as regular commits, 
-                        // then we should probably let the merge commit only show conflict resolutions if possible.
-                        // For now, comparing to parent(0) is what we had, which shows all branch changes.
-                        diffs = df.scan(parent.getTree(), commit.getTree());
-                    } else {
-                        diffs = parent != null ? df.scan(parent.getTree(), commit.getTree()) : df.scan(null, commit.getTree());
-                    }
-                    
-                    for (DiffEntry entry : diffs) {
-                        String path = entry.getNewPath() != null ? entry.getNewPath() : entry.getOldPath();
-                        if (path != null) {
-                            int lastDot = path.lastIndexOf('.');
-                            if (lastDot > 0) {
-                                languages.merge(path.substring(lastDot + 1).toLowerCase(), 1, Integer::sum);
-                            }
-                        }
+        return commitToBranch;
+    }
 
-                        switch (entry.getChangeType()) {
-                            case ADD -> fAdded++;
-                            case MODIFY -> fEdited++;
-                            case DELETE -> fDeleted++;
-                            default -> {}
-                        }
+    private String branchDisplayName(Repository repository, String fullBranchName) {
+        String branchName = repository.shortenRemoteBranchName(fullBranchName);
+        if (branchName != null && (branchName.equals(fullBranchName) || branchName.startsWith("refs/"))) {
+            if (fullBranchName.startsWith("refs/heads/")) branchName = fullBranchName.substring(11);
+            else if (fullBranchName.startsWith("refs/remotes/")) branchName = fullBranchName.substring(13);
+        }
+        if (branchName == null) branchName = fullBranchName;
 
-                        for (Edit edit : df.toFileHeader(entry).toEditList()) {
-                            linesAdded += edit.getEndB() - edit.getBeginB();
-                            linesDeleted += edit.getEndA() - edit.getBeginA();
-                        }
-                    }
+        if (branchName.startsWith("refs/heads/")) branchName = branchName.substring(11);
+        if (branchName.startsWith("refs/remotes/")) branchName = branchName.substring(13);
+        return branchName;
+    }
+
+    // Best claim (index in claim order) and trunk (index of main branch) seen so far for a commit.
+    // Kept beside the walk: a RevCommit subclass would keep RevWalk from creating commit-graph commits.
+    private static final class Ownership {
+        int claim = Integer.MAX_VALUE;
+        int trunk = -1;
+    }
+
+    // One CommitInfo row per commit for the latest `limit` commits (all of them when limit is 0)
+    private class CommitRowCollector implements HistoryEngine.Collector<CommitInfo> {
+        private final int limit;
+        private final Map<String, String> aliases;
+        private final Map<ObjectId, String> commitToBranch;
+        final List<CommitInfo> rows = new ArrayList<>();
+
+        CommitRowCollector(int limit, Map<String, String> aliases, Map<ObjectId, String> commitToBranch) {
+            this.limit = limit;
+            this.aliases = aliases;
+            this.commitToBranch = commitToBranch;
+        }
+
+        @Override
+        public CommitInfo analyze(HistoryEngine.CommitDiff diff) throws IOException {
+            if (limit > 0 && diff.index() >= limit) return null;
+            // For merge commits this compares against parent(0), which shows all branch changes
+            return describeCommit(diff, resolveAuthor(diff.commit(), aliases), commitToBranch.getOrDefault(diff.commit().getId(), "unknown"));
+        }
+
+        @Override
+        public void fold(RevCommit commit, CommitInfo row) {
+            rows.add(row);
+        }
+
+        @Override
+        public boolean isComplete() {
+            return limit > 0 && rows.size() >= limit;
+        }
+    }
+
+    // The initial commit is the last one of the walk, diffed against the empty tree
+    private class InitialCommitCollector implements HistoryEngine.Collector<CommitInfo> {
+        private final Map<String, String> aliases;
+        private RevCommit last;
+        private CommitInfo lastRow;
+
+        InitialCommitCollector(Map<String, String> aliases) {
+            this.aliases = aliases;
+        }
+
+        @Override
+        public CommitInfo analyze(HistoryEngine.CommitDiff diff) throws IOException {
+            // Only root commits compare against the empty tree in the shared pass
+            return diff.parent() == null ? describeCommit(diff, resolveAuthor(diff.commit(), aliases), "main") : null;
+        }
+
+        @Override
+        public void fold(RevCommit commit, CommitInfo row) {
+            last = commit;
+            lastRow = row;
+        }
+
+        CommitInfo result(HistoryEngine engine) throws IOException {
+            if (last == null) return null;
+            if (lastRow != null) return lastRow;
+            return engine.analyzeAgainstEmptyTree(last, this);
+        }
+    }
+
+    private CommitInfo describeCommit(HistoryEngine.CommitDiff diff, String targetName, String branch) throws IOException {
+        RevCommit commit = diff.commit();
+        Map<String, Integer> languages = new HashMap<>();
+        int linesAdded = 0;
+        int linesDeleted = 0;
+        int fAdded = 0;
+        int fEdited = 0;
+        int fDeleted = 0;
+
+        for (DiffEntry entry : diff.entries()) {
+            String path = entry.getNewPath() != null ? entry.getNewPath() : entry.getOldPath();
+            if (path != null) {
+                int lastDot = path.lastIndexOf('.');
+                if (lastDot > 0) {
+                    languages.merge(path.substring(lastDot + 1).toLowerCase(), 1, Integer::sum);
                 }
+            }
 
-                double aiProb = calculateAIProbability(commit, linesAdded, linesDeleted, languages.size());
-
-                result.add(new CommitInfo(
-                        commit.getName().substring(0, 7),
-                        targetName,
-                        commit.getShortMessage(),
-                        LocalDateTime.ofInstant(commit.getAuthorIdent().getWhenAsInstant(), ZoneId.systemDefault()),
-                        languages,
-                        aiProb,
-                        fAdded,
-                        fEdited,
-                        fDeleted,
-                        linesAdded,
-                        linesDeleted,
-                        commit.getParentCount() > 1,
-                        commitToBranch.getOrDefault(commit.getId(), "unknown")
-                ));
+            switch (entry.getChangeType()) {
+                case ADD -> fAdded++;
+                case MODIFY -> fEdited++;
+                case DELETE -> fDeleted++;
+                default -> {}
             }
-            return result;
+
+            DiffStat stat = diff.stat(entry, false);
+            linesAdded += stat.insertions();
+            linesDeleted += stat.deletions();
         }
+
+        double aiProb = calculateAIProbability(commit, linesAdded, linesDeleted, languages.size());
+
+        return new CommitInfo(
+                commit.getName().substring(0, 7),
+                targetName,
+                commit.getShortMessage(),
+                LocalDateTime.ofInstant(commit.getAuthorIdent().getWhenAsInstant(), ZoneId.systemDefault()),
+                languages,
+                aiProb,
+                fAdded,
+                fEdited,
+                fDeleted,
+                linesAdded,
+                linesDeleted,
+                commit.getParentCount() > 1,
+                branch,
+                commit.getName()
+        );
     }
 
     public Map<String, List<FileChange>> getTopFilesPerContributor(File repoPath, int limitPerContributor, Map<String, String> aliases) throws Exception {
-        try (Git git = Git.open(repoPath)) {
-            Repository repository = git.getRepository();
-            Iterable<RevCommit> commits = git.log().all().call();
-            Map<String, Map<String, FileChange>> contributorFileChanges = new HashMap<>();
-            Map<String, String> creators = getFileCreators(git, aliases);
-            Set<String> processedCommits = new HashSet<>();
-
-            for (RevCommit commit : commits) {
-                if (!processedCommits.add(commit.getName())) {
-                    continue;
-                }
-                if (commit.getParentCount() > 1) {
-                    continue; // Skip merge commits for file attribution
-                }
+        AnalysisScope scope = this.scope;
+        try (Git git = openGit(repoPath)) {
+            TopFilesCollector topFiles = new TopFilesCollector(aliases);
+            HistoryEngine engine = newScopedEngine(git.getRepository(), scope);
+            try (RevWalk walk = scopedWalk(git.getRepository(), scope)) {
+                engine.run(walk, List.of(topFiles));
+            }
+            return topFiles.results(limitPerContributor, creators(fileProvenance(repoPath, git), aliases), engine);
+        }
+    }
 
-                String authorEmail = commit.getAuthorIdent().getEmailAddress();
-                String authorName = commit.getAuthorIdent().getName();
-                String targetName = aliases != null ? aliases.getOrDefault(authorEmail, authorName) : authorName;
+    // Numbers only; the patch is formatted later, if the file is selected, from the commit and entry index
+    private record FileTouch(String path, int entryIndex, int insertions, int deletions, String changeType) {}
+
+    // Totals of one contributor's changes to one path, and where to find its patches
+    private static final class FileTotals {
+        private static final int DIFF_LIMIT = 2000;
+        private static final int COMBINED_DIFF_LIMIT = 3000;
+        private static final String TRUNCATED = "... [diff truncated]";
+
+        final String path;
+        final String category;
+        final String changeType;
+        // Iteration position in the contributor's map, ties in the ranking keep this order
+        int position;
+        int insertions;
+        int deletions;
+        final List<RevCommit> commits = new ArrayList<>();
+        final List<Integer> entryIndexes = new ArrayList<>();
+        // Touches whose patch is already part of diff
+        int formatted;
+        String diff;
+
+        FileTotals(String path, String category, String changeType) {
+            this.path = path;
+            this.category = category;
+            this.changeType = changeType;
+        }
 
-                Map<String, FileChange> fileMap = contributorFileChanges.computeIfAbsent(targetName, k -> new HashMap<>());
+        boolean isDiffComplete() {
+            return formatted == commits.size() || (diff != null && diff.length() > COMBINED_DIFF_LIMIT);
+        }
 
-                RevCommit parent = commit.getParentCount() > 0 ? commit.getParent(0) : null;
-                try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-                    df.setRepository(repository);
-                    List<DiffEntry> diffs = parent != null ? df.scan(parent.getTree(), commit.getTree()) : df.scan(null, commit.getTree());
+        // Each patch is cut at 2000 chars and the joined text at 3000, exactly as when they were joined eagerly
+        void append(String patch) {
+            if (patch.length() > DIFF_LIMIT) {
+                patch = patch.substring(0, DIFF_LIMIT) + TRUNCATED;
+            }
+            if (diff == null) {
+                diff = patch;
+            } else {
+                diff = diff + "\n" + patch;
+                if (diff.length() > COMBINED_DIFF_LIMIT) {
+                    diff = diff.substring(0, COMBINED_DIFF_LIMIT) + TRUNCATED;
+                }
+            }
+            formatted++;
+        }
 
-                    for (DiffEntry entry : diffs) {
-                        String path = entry.getNewPath() != null ? entry.getNewPath() : entry.getOldPath();
-                        int ins = 0;
-                        int del = 0;
-                        for (Edit edit : df.toFileHeader(entry).toEditList()) {
-                            ins += edit.getEndB() - edit.getBeginB();
-                            del += edit.getEndA() - edit.getBeginA();
-                        }
+        int totalChange() {
+            return insertions + deletions;
+        }
+    }
 
-                        FileChange existing = fileMap.get(path);
-                        String currentDiff = "";
-                        try {
-                            ByteArrayOutputStream out = new ByteArrayOutputStream();
-                            try (DiffFormatter dfDiff = new DiffFormatter(out)) {
-                                dfDiff.setRepository(repository);
-                                dfDiff.setDiffComparator(RawTextComparator.DEFAULT);
-                                dfDiff.setDetectRenames(true);
-                                dfDiff.format(entry);
-                                currentDiff = out.toString();
-                            }
-                        } catch (Exception e) {}
+    /**
+     * Per-contributor file changes, merge commits are skipped for file attribution. The walk only sums line
+     * counts; patch text is formatted afterwards for each contributor's top files, and only as far as the
+     * truncated text needs.
+     */
+    private class TopFilesCollector implements HistoryEngine.Collector<List<FileTouch>> {
+        private final Map<String, String> aliases;
+        private final Map<String, Map<String, FileTotals>> contributorFiles = new HashMap<>();
+
+        TopFilesCollector(Map<String, String> aliases) {
+            this.aliases = aliases;
+        }
 
-                        // Keep diff reasonably sized
-                        if (currentDiff.length() > 2000) {
-                            currentDiff = currentDiff.substring(0, 2000) + "... [diff truncated]";
-                        }
+        @Override
+        public List<FileTouch> analyze(HistoryEngine.CommitDiff diff) throws IOException {
+            if (diff.commit().getParentCount() > 1) {
+                return null;
+            }
+            List<DiffEntry> entries = diff.entries();
+            List<FileTouch> touches = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                DiffEntry entry = entries.get(i);
+                String path = entry.getNewPath() != null ? entry.getNewPath() : entry.getOldPath();
+                DiffStat stat = diff.stat(entry, false);
+                touches.add(new FileTouch(path, i, stat.insertions(), stat.deletions(), entry.getChangeType().name()));
+            }
+            return touches;
+        }
 
-                        if (existing == null) {
-                            fileMap.put(path, new FileChange(path, ins, del, categorizePath(path), entry.getChangeType().name(), currentDiff, creators.getOrDefault(path, "Unknown")));
-                        } else {
-                            String combinedDiff = existing.diff() + "\n" + currentDiff;
-                            // Keep combined diff reasonably sized
-                            if (combinedDiff.length() > 3000) {
-                                combinedDiff = combinedDiff.substring(0, 3000) + "... [diff truncated]";
-                            }
-                            fileMap.put(path, new FileChange(path, existing.insertions() + ins, existing.deletions() + del, existing.category(), existing.changeType(), combinedDiff, existing.creator()));
-                        }
-                    }
+        @Override
+        public void fold(RevCommit commit, List<FileTouch> touches) {
+            if (touches == null) return;
+            Map<String, FileTotals> fileMap = contributorFiles.computeIfAbsent(resolveAuthor(commit, aliases), k -> new HashMap<>());
+            for (FileTouch touch : touches) {
+                FileTotals totals = fileMap.get(touch.path());
+                if (totals == null) {
+                    totals = new FileTotals(touch.path(), categorizePath(touch.path()), touch.changeType());
+                    fileMap.put(touch.path(), totals);
                 }
+                totals.insertions += touch.insertions();
+                totals.deletions += touch.deletions();
+                totals.commits.add(commit);
+                totals.entryIndexes.add(touch.entryIndex());
             }
+        }
 
-            Map<String, List<FileChange>> result = new HashMap<>();
-            contributorFileChanges.forEach((contributor, fileMap) -> {
-                List<FileChange> topFiles = fileMap.values().stream()
-                        .sorted(Comparator.comparingInt(FileChange::getTotalChange).reversed())
-                        .limit(limitPerContributor)
-                        .toList();
-                result.put(contributor, topFiles);
+        Map<String, List<FileChange>> results(int limitPerContributor, Map<String, String> creators, HistoryEngine engine) throws IOException {
+            Map<String, List<FileTotals>> selected = new HashMap<>();
+            List<FileTotals> all = new ArrayList<>();
+            contributorFiles.forEach((contributor, fileMap) -> {
+                List<FileTotals> top = topFiles(fileMap, limitPerContributor);
+                selected.put(contributor, top);
+                all.addAll(top);
             });
+            formatDiffs(all, engine);
+
+            Map<String, List<FileChange>> result = new HashMap<>();
+            selected.forEach((contributor, top) -> result.put(contributor, top.stream()
+                    .map(f -> new FileChange(f.path, f.insertions, f.deletions, f.category, f.changeType, f.diff != null ? f.diff : "", creators.getOrDefault(f.path, "Unknown")))
+                    .toList()));
             return result;
         }
-    }
 
-    public CommitInfo getInitialCommit(File repoPath, Map<String, String> aliases) throws Exception {
-        try (Git git = Git.open(repoPath)) {
-            Repository repository = git.getRepository();
-            Iterable<RevCommit> commits = git.log().all().call();
-            RevCommit initial = null;
-            for (RevCommit commit : commits) {
-                initial = commit;
+        // The `limit` largest files, ties in map iteration order like a stable sort; the heap holds only `limit` of them
+        private List<FileTotals> topFiles(Map<String, FileTotals> fileMap, int limit) {
+            if (limit <= 0) return List.of();
+            int position = 0;
+            for (FileTotals f : fileMap.values()) f.position = position++;
+            Comparator<FileTotals> ranking = Comparator.comparingInt(FileTotals::totalChange).reversed()
+                    .thenComparingInt(f -> f.position);
+            PriorityQueue<FileTotals> heap = new PriorityQueue<>(limit + 1, ranking.reversed());
+            for (FileTotals f : fileMap.values()) {
+                heap.add(f);
+                if (heap.size() > limit) heap.poll();
             }
-            if (initial != null) {
-                Map<String, Integer> languages = new HashMap<>();
-                int linesAdded = 0;
-                int linesDeleted = 0;
-                int fAdded = 0;
-                int fEdited = 0;
-                int fDeleted = 0;
-
-                String authorEmail = initial.getAuthorIdent().getEmailAddress();
-                String authorName = initial.getAuthorIdent().getName();
-                String targetName = aliases != null ? aliases.getOrDefault(authorEmail, authorName) : authorName;
-
-                try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-                    df.setRepository(repository);
-                    List<DiffEntry> diffs = df.scan(null, initial.getTree());
-                    for (DiffEntry entry : diffs) {
-                        String path = entry.getNewPath();
-                        if (path != null) {
-                            int lastDot = path.lastIndexOf('.');
-                            if (lastDot > 0) {
-                                languages.merge(path.substring(lastDot + 1).toLowerCase(), 1, Integer::sum);
-                            }
-                        }
+            List<FileTotals> top = new ArrayList<>(heap);
+            top.sort(ranking);
+            return top;
+        }
 
-                        switch (entry.getChangeType()) {
-                            case ADD -> fAdded++;
-                            case MODIFY -> fEdited++;
-                            case DELETE -> fDeleted++;
-                            default -> {}
+        /**
+         * Formats the patches of the selected files in rounds over the commits that touched them. A file asks for
+         * twice as many patches each round until its truncated text is full, so a file touched by thousands of
+         * commits usually formats only its first few patches.
+         */
+        private void formatDiffs(List<FileTotals> files, HistoryEngine engine) throws IOException {
+            List<FileTotals> open = new ArrayList<>(files);
+            int batch = 1;
+            while (!open.isEmpty()) {
+                // Commit -> (file, entry index) requests, the walk order is kept within a file
+                Map<RevCommit, List<Map.Entry<FileTotals, Integer>>> requests = new LinkedHashMap<>();
+                Map<FileTotals, List<Integer>> requestOrder = new IdentityHashMap<>();
+                for (FileTotals f : open) {
+                    int end = Math.min(f.commits.size(), f.formatted + batch);
+                    for (int i = f.formatted; i < end; i++) {
+                        requests.computeIfAbsent(f.commits.get(i), c -> new ArrayList<>()).add(Map.entry(f, i));
+                        requestOrder.computeIfAbsent(f, k -> new ArrayList<>()).add(i);
+                    }
+                }
+                Map<FileTotals, Map<Integer, String>> patches = new IdentityHashMap<>();
+                engine.run(requests.keySet(), List.of(new HistoryEngine.Collector<Map<Map.Entry<FileTotals, Integer>, String>>() {
+                    @Override
+                    public Map<Map.Entry<FileTotals, Integer>, String> analyze(HistoryEngine.CommitDiff diff) throws IOException {
+                        Map<Map.Entry<FileTotals, Integer>, String> texts = new HashMap<>();
+                        List<DiffEntry> entries = diff.entries();
+                        for (Map.Entry<FileTotals, Integer> request : requests.get(diff.commit())) {
+                            String text = "";
+                            try {
+                                text = diff.patchText(entries.get(request.getKey().entryIndexes.get(request.getValue())));
+                            } catch (Exception e) {}
+                            texts.put(request, text);
                         }
+                        return texts;
+                    }
 
-                        for (Edit edit : df.toFileHeader(entry).toEditList()) {
-                            linesAdded += edit.getEndB() - edit.getBeginB();
-                            linesDeleted += edit.getEndA() - edit.getBeginA();
-                        }
+                    @Override
+                    public void fold(RevCommit commit, Map<Map.Entry<FileTotals, Integer>, String> texts) {
+                        texts.forEach((request, text) -> patches.computeIfAbsent(request.getKey(), k -> new HashMap<>()).put(request.getValue(), text));
                     }
+                }));
+
+                List<FileTotals> stillOpen = new ArrayList<>();
+                for (FileTotals f : open) {
+                    Map<Integer, String> texts = patches.getOrDefault(f, Map.of());
+                    for (int i : requestOrder.getOrDefault(f, List.of())) {
+                        if (f.isDiffComplete()) break;
+                        f.append(texts.getOrDefault(i, ""));
+                    }
+                    if (!f.isDiffComplete()) stillOpen.add(f);
                 }
-                double aiProb = calculateAIProbability(initial, linesAdded, linesDeleted, languages.size());
-
-                return new CommitInfo(
-                        initial.getName().substring(0, 7),
-                        targetName,
-                        initial.getShortMessage(),
-                        LocalDateTime.ofInstant(initial.getAuthorIdent().getWhenAsInstant(), ZoneId.systemDefault()),
-                        languages,
-                        aiProb,
-                        fAdded,
-                        fEdited,
-                        fDeleted,
-                        linesAdded,
-                        linesDeleted,
-                        initial.getParentCount() > 1,
-                        "main"
-                );
+                open = stillOpen;
+                batch *= 2;
             }
-            return null;
+        }
+    }
+
+    public CommitInfo getInitialCommit(File repoPath, Map<String, String> aliases) throws Exception {
+        try (Git git = openGit(repoPath)) {
+            return findInitialCommit(git.getRepository(), aliases);
+        }
+    }
+
+    // Last commit of the unscoped walk. Only commit headers are parsed on the way; one diff is computed at the end.
+    private CommitInfo findInitialCommit(Repository repository, Map<String, String> aliases) throws IOException {
+        try (RevWalk walk = allCommitsWalk(repository)) {
+            walk.setRetainBody(false);
+            RevCommit last = null;
+            for (RevCommit commit : walk) {
+                last = commit;
+            }
+            if (last == null) return null;
+            walk.parseBody(last);
+            return newEngine(repository).analyzeAgainstEmptyTree(last, new InitialCommitCollector(aliases));
         }
     }
 
@@ -1008,13 +1670,16 @@ public class GitService {
         int meaninglessCommits;
         int generatedFilesPushed;
         int documentationLinesAdded;
-        Map<String, Integer> languageBreakdown = new HashMap<>();
-        Map<String, Integer> directoryBreakdown = new HashMap<>();
+        // Counts per interned extension and directory, turned into maps only in build()
+        IntCounter languages = new IntCounter();
+        IntCounter directories = new IntCounter();
         double totalAiProbability;
         int filesAdded;
         int filesEdited;
         int filesDeleted;
         boolean touchedTests;
+        // Files of a single commit, only collected when they are stored
+        List<CommitFileChange> files;
 
         StatsBuilder(String name, String email, String gender) {
             this.name = name;
@@ -1022,8 +1687,39 @@ public class GitService {
             this.gender = gender;
         }
 
-        ContributorStats build(double meaningfulChangeScore) {
-            return new ContributorStats(name, email, gender, commitCount, mergeCount, linesAdded, linesDeleted, languageBreakdown, totalAiProbability / (commitCount + mergeCount > 0 ? commitCount + mergeCount : 1), filesAdded, filesEdited, filesDeleted, meaningfulChangeScore, touchedTests, generatedFilesPushed, documentationLinesAdded, directoryBreakdown);
+        void add(CommitContribution c, PathDictionary dictionary) {
+            if (c.isMerge()) {
+                mergeCount++;
+            } else {
+                commitCount++;
+            }
+            linesAdded += c.linesAdded();
+            linesDeleted += c.linesDeleted();
+            blankLinesAdded += c.blankLinesAdded();
+            blankLinesDeleted += c.blankLinesDeleted();
+            if (c.meaningless()) meaninglessCommits++;
+            generatedFilesPushed += c.generatedFilesPushed();
+            documentationLinesAdded += c.documentationLinesAdded();
+            addCounts(languages, c.languageBreakdown(), dictionary);
+            addCounts(directories, c.directoryBreakdown(), dictionary);
+            totalAiProbability += c.aiProbability();
+            filesAdded += c.filesAdded();
+            filesEdited += c.filesEdited();
+            filesDeleted += c.filesDeleted();
+            touchedTests |= c.touchedTests();
+        }
+
+        // Facts analyzed in this run carry their counters; stored ones are interned again
+        private static void addCounts(IntCounter target, Map<String, Integer> counts, PathDictionary dictionary) {
+            if (counts instanceof IntCounter.CountsView view) {
+                target.addAll(view.counter());
+            } else {
+                counts.forEach((k, v) -> target.add(dictionary.id(k), v));
+            }
+        }
+
+        ContributorStats build(double meaningfulChangeScore, PathDictionary dictionary) {
+            return new ContributorStats(name, email, gender, commitCount, mergeCount, linesAdded, linesDeleted, languages.toMap(dictionary), totalAiProbability / (commitCount + mergeCount > 0 ? commitCount + mergeCount : 1), filesAdded, filesEdited, filesDeleted, meaningfulChangeScore, touchedTests, generatedFilesPushed, documentationLinesAdded, directories.toMap(dictionary));
         }
     }
 }
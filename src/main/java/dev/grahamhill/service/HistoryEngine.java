@@ -0,0 +1,582 @@
+package dev.grahamhill.service;
+
+import dev.grahamhill.model.DiffStat;
+import dev.grahamhill.model.SkippedBlobs;
+import org.eclipse.jgit.api.errors.CanceledException;
+import org.eclipse.jgit.errors.BinaryBlobException;
+import org.eclipse.jgit.errors.RevWalkException;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Walks the history once and diffs every commit at most once, handing the result to a set of collectors.
+ * Each collector does its per-commit work in {@link Collector#analyze} and its aggregation in
+ * {@link Collector#fold}, which is always called in walk order. With a parallelism above one,
+ * {@link Collector#analyze} runs on worker threads and must not touch shared mutable state.
+ */
+public class HistoryEngine {
+
+    public interface Collector<T> {
+        // Per-commit work. Returning null means the commit is not interesting to this collector.
+        T analyze(CommitDiff diff) throws IOException;
+
+        // Ordered aggregation, called for every commit in walk order (fact may be null)
+        void fold(RevCommit commit, T fact);
+
+        // Once every collector is complete the walk stops early
+        default boolean isComplete() {
+            return false;
+        }
+    }
+
+    // Commits handed to the workers per batch, per worker. The first batch gives each worker one commit and every
+    // batch doubles up to this, so a walk that only wants its newest commits stops after diffing about that many.
+    private static final int COMMITS_PER_WORKER = 64;
+    // Line indexes kept per worker
+    private static final int LINE_INDEX_ENTRIES = 256;
+
+    private final Repository repository;
+    private int parallelism = 1;
+    private DiffStatCache diffStatCache;
+    private TreeFilter pathFilter;
+    private BlobGuard blobGuard = new BlobGuard(BlobGuard.DEFAULT_THRESHOLD);
+
+    public HistoryEngine(Repository repository) {
+        this.repository = repository;
+    }
+
+    public Repository getRepository() {
+        return repository;
+    }
+
+    public HistoryEngine setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    public HistoryEngine setDiffStatCache(DiffStatCache diffStatCache) {
+        this.diffStatCache = diffStatCache;
+        return this;
+    }
+
+    // Restricts every diff to the given paths; null diffs the whole tree
+    public HistoryEngine setPathFilter(TreeFilter pathFilter) {
+        this.pathFilter = pathFilter;
+        return this;
+    }
+
+    HistoryEngine setBlobGuard(BlobGuard blobGuard) {
+        this.blobGuard = blobGuard;
+        return this;
+    }
+
+    BlobGuard getBlobGuard() {
+        return blobGuard;
+    }
+
+    // Blobs this engine did not diff as text so far
+    public SkippedBlobs skippedBlobs() {
+        return blobGuard.snapshot();
+    }
+
+    public void run(Iterable<RevCommit> commits, List<? extends Collector<?>> collectors) throws IOException {
+        commits = withBodies(commits);
+        try {
+            if (parallelism > 1) {
+                runParallel(commits, collectors);
+                return;
+            }
+            try (DiffContext context = newContext()) {
+                int index = 0;
+                for (RevCommit commit : commits) {
+                    if (allComplete(collectors)) break;
+                    checkInterrupted();
+                    CommitDiff diff = new CommitDiff(context, commit, index++, false);
+                    for (Collector<?> collector : collectors) {
+                        apply(collector, diff);
+                    }
+                }
+            }
+        } finally {
+            if (diffStatCache != null) diffStatCache.flush();
+        }
+    }
+
+    // A walk reading headers from the commit-graph leaves author and message unparsed; collectors need both.
+    // Parsed here, on the walk's thread, as RevWalk is not thread safe.
+    private static Iterable<RevCommit> withBodies(Iterable<RevCommit> commits) {
+        if (!(commits instanceof RevWalk walk) || walk.isRetainBody()) return commits;
+        return () -> new Iterator<>() {
+            private final Iterator<RevCommit> iterator = walk.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public RevCommit next() {
+                RevCommit commit = iterator.next();
+                try {
+                    walk.parseBody(commit);
+                } catch (IOException e) {
+                    throw new RevWalkException(e);
+                }
+                return commit;
+            }
+        };
+    }
+
+    // A cancelled analysis interrupts its thread; stop between commits instead of finishing the walk
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("History analysis interrupted");
+    }
+
+    private DiffContext newContext() {
+        return new DiffContext(repository, diffStatCache, pathFilter, blobGuard);
+    }
+
+    /**
+     * Splits the walk into batches and diffs each batch on a pool of workers, every worker with its own
+     * ObjectReader and DiffFormatter. Per-commit facts are folded on the calling thread in walk order, so the
+     * result is identical to a sequential run.
+     */
+    private void runParallel(Iterable<RevCommit> commits, List<? extends Collector<?>> collectors) throws IOException {
+        List<DiffContext> contexts = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                contexts.add(newContext());
+            }
+            Iterator<RevCommit> iterator = commits.iterator();
+            List<RevCommit> batch = new ArrayList<>();
+            int batchSize = parallelism;
+            int index = 0;
+            while (iterator.hasNext() && !allComplete(collectors)) {
+                checkInterrupted();
+                batch.clear();
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    batch.add(iterator.next());
+                }
+
+                List<Collector<?>> active = new ArrayList<>();
+                for (Collector<?> collector : collectors) {
+                    if (!collector.isComplete()) active.add(collector);
+                }
+                Object[][] facts = new Object[active.size()][batch.size()];
+
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (int w = 0; w < parallelism; w++) {
+                    DiffContext context = contexts.get(w);
+                    int from = w * batch.size() / parallelism;
+                    int to = (w + 1) * batch.size() / parallelism;
+                    int offset = index;
+                    tasks.add(() -> {
+                        for (int i = from; i < to; i++) {
+                            CommitDiff diff = new CommitDiff(context, batch.get(i), offset + i, false);
+                            for (int c = 0; c < active.size(); c++) {
+                                facts[c][i] = active.get(c).analyze(diff);
+                            }
+                        }
+                        return null;
+                    });
+                }
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    for (int c = 0; c < active.size(); c++) {
+                        if (!active.get(c).isComplete()) {
+                            fold(active.get(c), batch.get(i), facts[c][i]);
+                        }
+                    }
+                }
+                index += batch.size();
+                batchSize = Math.min(batchSize * 2, parallelism * COMMITS_PER_WORKER);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("History analysis failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("History analysis interrupted", e);
+        } finally {
+            pool.shutdownNow();
+            contexts.forEach(DiffContext::close);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void fold(Collector<T> collector, RevCommit commit, Object fact) {
+        collector.fold(commit, (T) fact);
+    }
+
+    // Diff a single commit against the empty tree, e.g. to describe the initial commit
+    public <T> T analyzeAgainstEmptyTree(RevCommit commit, Collector<T> collector) throws IOException {
+        try (DiffContext context = newContext()) {
+            return collector.analyze(new CommitDiff(context, commit, 0, true));
+        }
+    }
+
+    // The algorithm DiffFormatter picks from the repository config
+    static String diffAlgorithm(Repository repository) {
+        return configuredAlgorithm(repository).name();
+    }
+
+    private static DiffAlgorithm.SupportedAlgorithm configuredAlgorithm(Repository repository) {
+        return repository.getConfig().getEnum(ConfigConstants.CONFIG_DIFF_SECTION, null,
+                ConfigConstants.CONFIG_KEY_ALGORITHM, DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+    }
+
+    private static boolean allComplete(List<? extends Collector<?>> collectors) {
+        for (Collector<?> collector : collectors) {
+            if (!collector.isComplete()) return false;
+        }
+        return !collectors.isEmpty();
+    }
+
+    private static <T> void apply(Collector<T> collector, CommitDiff diff) throws IOException {
+        if (collector.isComplete()) return;
+        T fact = collector.analyze(diff);
+        collector.fold(diff.commit(), fact);
+    }
+
+    /**
+     * Reader, formatter and rename detector shared by all commits of one walk.
+     */
+    static final class DiffContext implements AutoCloseable {
+        final Repository repository;
+        final ObjectReader reader;
+        final DiffFormatter formatter;
+        final RenameDetector renameDetector;
+        final DiffStatCache diffStatCache;
+        // Part of the stat cache key, edit lists depend on the configured algorithm
+        final String algorithm;
+        final DiffAlgorithm diffAlgorithm;
+        // Blobs above its threshold are never loaded whole
+        final BlobGuard blobGuard;
+        private ByteArrayOutputStream patchOut;
+        private DiffFormatter patchFormatter;
+        // The new blob of one commit is usually the old blob of the next one, so recent indexes are kept
+        private final Map<ObjectId, BlobLineIndex> lineIndexes = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectId, BlobLineIndex> eldest) {
+                return size() > LINE_INDEX_ENTRIES;
+            }
+        };
+
+        DiffContext(Repository repository, DiffStatCache diffStatCache, TreeFilter pathFilter, BlobGuard blobGuard) {
+            this.repository = repository;
+            this.reader = repository.newObjectReader();
+            this.blobGuard = blobGuard;
+            this.formatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
+            this.formatter.setReader(reader, repository.getConfig());
+            this.formatter.setDiffComparator(RawTextComparator.DEFAULT);
+            this.formatter.setBinaryFileThreshold(blobGuard.threshold());
+            if (pathFilter != null) {
+                // Filters may keep state while walking, every worker gets its own copy
+                this.formatter.setPathFilter(pathFilter.clone());
+            }
+            this.renameDetector = new RenameDetector(reader, repository.getConfig().get(DiffConfig.KEY));
+            this.diffStatCache = diffStatCache;
+            this.algorithm = diffAlgorithm(repository);
+            this.diffAlgorithm = DiffAlgorithm.getAlgorithm(configuredAlgorithm(repository));
+        }
+
+        // Loader of one side of an entry, null where DiffFormatter would diff an empty text
+        ObjectLoader open(FileMode mode, AbbreviatedObjectId id) throws IOException {
+            return BlobGuard.open(reader, mode, id);
+        }
+
+        // The side as DiffFormatter loads it: binary content is rejected from the first bytes, oversized blobs unread
+        RawText text(ObjectLoader loader) throws IOException, BinaryBlobException {
+            return loader == null ? RawText.EMPTY_TEXT : RawText.load(loader, blobGuard.threshold());
+        }
+
+        // Null for the zero id of an added or deleted file
+        BlobLineIndex lineIndex(ObjectId id) throws IOException {
+            if (id.equals(ObjectId.zeroId())) return null;
+            BlobLineIndex index = lineIndexes.get(id);
+            if (index == null) {
+                ObjectLoader loader = reader.open(id);
+                if (blobGuard.isOversized(loader)) return null;
+                // The limit lets blobs above the stream threshold of a small storage profile load too
+                index = BlobLineIndex.of(loader.getCachedBytes(blobGuard.threshold()));
+                lineIndexes.put(id, index);
+            }
+            return index;
+        }
+
+        String formatPatch(DiffEntry entry) throws IOException {
+            if (patchFormatter == null) {
+                patchOut = new ByteArrayOutputStream();
+                patchFormatter = new DiffFormatter(patchOut);
+                patchFormatter.setReader(reader, repository.getConfig());
+                patchFormatter.setDiffComparator(RawTextComparator.DEFAULT);
+                patchFormatter.setBinaryFileThreshold(blobGuard.threshold());
+            }
+            patchOut.reset();
+            patchFormatter.format(entry);
+            patchFormatter.flush();
+            return patchOut.toString();
+        }
+
+        @Override
+        public void close() {
+            formatter.close();
+            if (patchFormatter != null) patchFormatter.close();
+            reader.close();
+        }
+    }
+
+    /**
+     * The change a single commit introduces against its first parent. Entries and edit lists are computed
+     * lazily and memoized, so collectors asking for the same data share one diff.
+     */
+    public static final class CommitDiff {
+        private final DiffContext context;
+        private final RevCommit commit;
+        private final int index;
+        private final boolean againstEmptyTree;
+        private List<DiffEntry> entries;
+        private List<DiffEntry> renamedEntries;
+        private final Map<BlobPair, EditList> edits = new HashMap<>();
+        // Set by count() when an entry was left out for its size
+        private boolean skippedOversized;
+
+        CommitDiff(DiffContext context, RevCommit commit, int index, boolean againstEmptyTree) {
+            this.context = context;
+            this.commit = commit;
+            this.index = index;
+            this.againstEmptyTree = againstEmptyTree;
+        }
+
+        public RevCommit commit() {
+            return commit;
+        }
+
+        // Position of the commit in the walk, 0 being the newest
+        public int index() {
+            return index;
+        }
+
+        public Repository repository() {
+            return context.repository;
+        }
+
+        public RevCommit parent() {
+            return !againstEmptyTree && commit.getParentCount() > 0 ? commit.getParent(0) : null;
+        }
+
+        // Raw entries against the first parent, without rename detection
+        public List<DiffEntry> entries() throws IOException {
+            if (entries == null) {
+                RevCommit parent = parent();
+                entries = context.formatter.scan(parent != null ? parent.getTree() : null, commit.getTree());
+            }
+            return entries;
+        }
+
+        // Same entries with ADD/DELETE pairs folded into RENAME/COPY
+        public List<DiffEntry> renamedEntries() throws IOException {
+            if (renamedEntries == null) {
+                // RenameDetector rewrites some of the entries it is given, so it works on copies
+                List<DiffEntry> copies = new ArrayList<>();
+                for (DiffEntry entry : entries()) {
+                    copies.add(new DetachedEntry(entry));
+                }
+                context.renameDetector.reset();
+                context.renameDetector.addAll(copies);
+                try {
+                    renamedEntries = context.renameDetector.compute(context.reader, NullProgressMonitor.INSTANCE);
+                } catch (CanceledException e) {
+                    renamedEntries = Collections.emptyList();
+                }
+            }
+            return renamedEntries;
+        }
+
+        // Edit lists only depend on the two blobs, so both views of an entry share one diff
+        public EditList edits(DiffEntry entry) throws IOException {
+            BlobPair key = new BlobPair(entry.getOldId(), entry.getNewId());
+            EditList list = edits.get(key);
+            if (list == null) {
+                list = diffTexts(entry);
+                edits.put(key, list);
+            }
+            return list;
+        }
+
+        // The edit list DiffFormatter.toFileHeader would return, without formatting a file header around it
+        private EditList diffTexts(DiffEntry entry) throws IOException {
+            if (!isPlainBlobPair(entry)) {
+                return context.formatter.toFileHeader(entry).toEditList();
+            }
+            try {
+                RawText a = context.text(context.open(entry.getOldMode(), entry.getOldId()));
+                RawText b = context.text(context.open(entry.getNewMode(), entry.getNewId()));
+                return context.diffAlgorithm.diff(RawTextComparator.DEFAULT, a, b);
+            } catch (BinaryBlobException e) {
+                return new EditList();
+            }
+        }
+
+        // Submodule links are diffed as generated text by DiffFormatter, abbreviated ids need resolving first
+        private static boolean isPlainBlobPair(DiffEntry entry) {
+            return entry.getOldMode() != FileMode.GITLINK && entry.getNewMode() != FileMode.GITLINK
+                    && entry.getOldId().isComplete() && entry.getNewId().isComplete();
+        }
+
+        /**
+         * Insertions and deletions of an entry, served from the stat cache when the blob pair was seen before.
+         * Blank line counts are only filled in when asked for.
+         */
+        public DiffStat stat(DiffEntry entry, boolean blankLines) throws IOException {
+            DiffStatCache cache = context.diffStatCache;
+            boolean cacheable = cache != null && entry.getOldId().isComplete() && entry.getNewId().isComplete();
+            DiffStat stat = cacheable ? cache.get(entry.getOldId().toObjectId(), entry.getNewId().toObjectId(), context.algorithm) : null;
+            if (stat != null && (!blankLines || stat.hasBlankLines())) {
+                return stat;
+            }
+
+            skippedOversized = false;
+            stat = count(entry, blankLines).merge(stat);
+            // Not cached: the same pair is diffed once the size limit allows it
+            if (cacheable && !skippedOversized) {
+                cache.put(entry.getOldId().toObjectId(), entry.getNewId().toObjectId(), context.algorithm, stat);
+            }
+            return stat;
+        }
+
+        /**
+         * Numstat counting: an edit list is only built when both sides have lines, i.e. for real modifications.
+         * An added, deleted or emptied file is a single edit covering the other side, so its counts are the line
+         * counts of that blob. Binary blobs count as no lines, like in the edit list DiffFormatter returns for them.
+         */
+        private DiffStat count(DiffEntry entry, boolean blankLines) throws IOException {
+            EditList list = edits.get(new BlobPair(entry.getOldId(), entry.getNewId()));
+            if (list == null && isPlainBlobPair(entry)) {
+                ObjectLoader oldBlob = context.open(entry.getOldMode(), entry.getOldId());
+                ObjectLoader newBlob = context.open(entry.getNewMode(), entry.getNewId());
+                if (context.blobGuard.isOversized(oldBlob) || context.blobGuard.isOversized(newBlob)) {
+                    DiffStat stat = context.blobGuard.countOversized(oldBlob, newBlob);
+                    if (stat != null) return stat;
+                    skippedOversized = true;
+                    return noLines(blankLines);
+                }
+                RawText a;
+                RawText b;
+                try {
+                    a = context.text(oldBlob);
+                    b = context.text(newBlob);
+                } catch (BinaryBlobException e) {
+                    context.blobGuard.binary();
+                    edits.put(new BlobPair(entry.getOldId(), entry.getNewId()), new EditList());
+                    return noLines(blankLines);
+                }
+                if (a.size() == 0 || b.size() == 0) {
+                    DiffStat stat = DiffStat.of(b.size(), a.size());
+                    if (!blankLines) return stat;
+                    return stat.withBlankLines(countBlankLines(entry.getNewId(), b.size()), countBlankLines(entry.getOldId(), a.size()));
+                }
+                list = context.diffAlgorithm.diff(RawTextComparator.DEFAULT, a, b);
+                edits.put(new BlobPair(entry.getOldId(), entry.getNewId()), list);
+            }
+            if (list == null) list = edits(entry);
+
+            int ins = 0;
+            int del = 0;
+            for (Edit edit : list) {
+                ins += edit.getEndB() - edit.getBeginB();
+                del += edit.getEndA() - edit.getBeginA();
+            }
+            DiffStat stat = DiffStat.of(ins, del);
+            if (blankLines) {
+                int[] blank = countBlankLines(entry, list);
+                stat = stat.withBlankLines(blank[0], blank[1]);
+            }
+            return stat;
+        }
+
+        private static DiffStat noLines(boolean blankLines) {
+            return blankLines ? DiffStat.of(0, 0).withBlankLines(0, 0) : DiffStat.of(0, 0);
+        }
+
+        // Blank lines among the first `lines` lines of a blob
+        private int countBlankLines(AbbreviatedObjectId id, int lines) {
+            if (lines == 0) return 0;
+            try {
+                BlobLineIndex index = context.lineIndex(id.toObjectId());
+                return index != null ? index.countBlank(0, lines) : 0;
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+
+        // Added and deleted lines inside the edits that are empty or whitespace only
+        private int[] countBlankLines(DiffEntry entry, EditList list) {
+            int[] blank = new int[2];
+            if (list.isEmpty()) return blank;
+            try {
+                BlobLineIndex a = context.lineIndex(entry.getOldId().toObjectId());
+                BlobLineIndex b = context.lineIndex(entry.getNewId().toObjectId());
+                for (Edit edit : list) {
+                    if (b != null) blank[0] += b.countBlank(edit.getBeginB(), edit.getEndB());
+                    if (a != null) blank[1] += a.countBlank(edit.getBeginA(), edit.getEndA());
+                }
+            } catch (Exception e) {
+                // fallback or ignore if text cannot be loaded
+            }
+            return blank;
+        }
+
+        public String patchText(DiffEntry entry) throws IOException {
+            return context.formatPatch(entry);
+        }
+    }
+
+    private record BlobPair(AbbreviatedObjectId oldId, AbbreviatedObjectId newId) {}
+
+    private static final class DetachedEntry extends DiffEntry {
+        DetachedEntry(DiffEntry entry) {
+            oldPath = entry.getOldPath();
+            newPath = entry.getNewPath();
+            diffAttribute = entry.getDiffAttribute();
+            oldMode = entry.getOldMode();
+            newMode = entry.getNewMode();
+            changeType = entry.getChangeType();
+            score = entry.getScore();
+            oldId = entry.getOldId();
+            newId = entry.getNewId();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package dev.grahamhill.service;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Open-addressing int to int map used to count per interned key without boxing.
+ * Not thread-safe; every builder owns its counters.
+ */
+final class IntCounter {
+    // Slots hold key + 1, so 0 marks an empty slot
+    private int[] keys = new int[8];
+    private int[] values = new int[8];
+    private int size;
+    // 32 - log2(keys.length): Fibonacci hashing takes the slot from the top bits of the product
+    private int shift = 29;
+
+    // Adds delta to the key's count; like Map.merge the key is present afterwards even when delta is 0
+    void add(int key, int delta) {
+        int slot = slot(key);
+        if (keys[slot] == 0) {
+            keys[slot] = key + 1;
+            if (++size * 2 > keys.length) {
+                values[slot] = delta;
+                grow();
+                return;
+            }
+        }
+        values[slot] += delta;
+    }
+
+    void addAll(IntCounter other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != 0) add(other.keys[i] - 1, other.values[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    Map<String, Integer> toMap(PathDictionary dictionary) {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) map.put(dictionary.name(keys[i] - 1), values[i]);
+        }
+        return map;
+    }
+
+    // Read-only Map view, for facts that are handed out but rarely read as a map
+    Map<String, Integer> asMap(PathDictionary dictionary) {
+        return new CountsView(this, dictionary);
+    }
+
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int slot = (key * 0x9E3779B9) >>> shift;
+        while (keys[slot] != 0 && keys[slot] != key + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        shift--;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i] - 1);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    static final class CountsView extends AbstractMap<String, Integer> {
+        private final IntCounter counter;
+        private final PathDictionary dictionary;
+
+        private CountsView(IntCounter counter, PathDictionary dictionary) {
+            this.counter = counter;
+            this.dictionary = dictionary;
+        }
+
+        IntCounter counter() {
+            return counter;
+        }
+
+        @Override
+        public Set<Entry<String, Integer>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return counter.size;
+                }
+
+                @Override
+                public Iterator<Entry<String, Integer>> iterator() {
+                    return new Iterator<>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            while (from < counter.keys.length && counter.keys[from] == 0) from++;
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < counter.keys.length;
+                        }
+
+                        @Override
+                        public Entry<String, Integer> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            Entry<String, Integer> entry = new SimpleImmutableEntry<>(dictionary.name(counter.keys[next] - 1), counter.values[next]);
+                            next = advance(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
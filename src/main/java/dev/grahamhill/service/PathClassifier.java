@@ -0,0 +1,172 @@
+package dev.grahamhill.service;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Category rules for file paths, compiled once into tries. Rules are checked in order and the first
+ * matching category wins, exactly like the original chain of contains/startsWith/endsWith checks.
+ * Results are memoized per path, and the content sniffing for frontend components per blob id. The classifier lives
+ * as long as its GitService, so both memos are bounded: past the limit an arbitrary eighth is dropped.
+ */
+final class PathClassifier {
+    private static final String SOURCE_CODE = "Source Code";
+    private static final String STYLING = "Styling";
+    private static final String OTHER = "Other";
+
+    // Rule groups in priority order
+    private static final String[] CATEGORIES = {
+            "Tests", STYLING, SOURCE_CODE, "Generated/Artifacts", "Lockfiles", "Sourcemaps/Minified", "Config/Data", "Documentation"
+    };
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+    // Value used in the suffix trie for components whose content may turn them into Styling
+    private static final int SNIFFABLE = -1;
+    private static final int MEMO_ENTRIES = 100_000;
+
+    private final Trie contains = new Trie();
+    private final Trie prefixes = new Trie();
+    private final Trie suffixes = new Trie();
+
+    private final Map<String, Integer> pathRules = new ConcurrentHashMap<>();
+    private final Map<ObjectId, Boolean> stylingBlobs = new ConcurrentHashMap<>();
+    // HEAD:path lookups, per open repository
+    private final Map<Repository, Map<String, Optional<ObjectId>>> headBlobs = Collections.synchronizedMap(new WeakHashMap<>());
+
+    PathClassifier() {
+        contains("Tests", "test/", "tests/", "__tests__");
+        suffix("Tests", "test.java", "spec.js");
+        suffix(STYLING, ".css", ".scss", ".sass", ".less");
+        prefix(SOURCE_CODE, "src/", "app/", "lib/");
+        contains(SOURCE_CODE, "backend/", "frontend/");
+        prefix("Generated/Artifacts", "dist/", "build/");
+        contains("Generated/Artifacts", ".next/", ".nuxt/", "coverage/");
+        suffix("Lockfiles", "package-lock.json", "yarn.lock", "pnpm-lock.yaml", "requirements.txt", "pom.xml");
+        suffix("Sourcemaps/Minified", ".map", ".min.js", ".min.css");
+        suffix("Config/Data", ".json", ".yml", ".yaml", ".toml", ".xml");
+        suffix("Documentation", ".md", ".txt", ".pdf", ".doc", ".docx");
+    }
+
+    String categorize(String path, Repository repository) {
+        int rule = memo(pathRules, path, this::matchRule);
+        if (rule == SNIFFABLE) {
+            return repository != null && isStyling(path, repository) ? STYLING : SOURCE_CODE;
+        }
+        return rule == NO_MATCH ? OTHER : CATEGORIES[rule];
+    }
+
+    private int matchRule(String path) {
+        String lowerPath = path.toLowerCase();
+        int rule = prefixes.matchPrefix(lowerPath);
+        rule = Math.min(rule, contains.matchAnywhere(lowerPath));
+        rule = Math.min(rule, suffixes.matchSuffix(lowerPath));
+        if (rule == indexOf(SOURCE_CODE) && (lowerPath.endsWith(".vue") || lowerPath.endsWith(".jsx") || lowerPath.endsWith(".tsx"))) {
+            return SNIFFABLE;
+        }
+        return rule;
+    }
+
+    // Whether the component at HEAD is mostly styling
+    private boolean isStyling(String path, Repository repository) {
+        Optional<ObjectId> blob = headBlobs.computeIfAbsent(repository, r -> new ConcurrentHashMap<>())
+                .computeIfAbsent(path, p -> {
+                    try {
+                        return Optional.ofNullable(repository.resolve("HEAD:" + p));
+                    } catch (Exception e) {
+                        return Optional.empty();
+                    }
+                });
+        if (blob.isEmpty()) return false;
+        return memo(stylingBlobs, blob.get(), id -> {
+            try {
+                String content = new String(repository.open(id).getBytes());
+                if (content.contains("<style") || content.contains("styled-components") || content.contains("className=")) {
+                    // Simple heuristic: many classes or a style block
+                    return content.split("<style").length > 1 || content.split("className=").length > 5;
+                }
+            } catch (Exception e) {
+                // ignore and fallback
+            }
+            return false;
+        });
+    }
+
+    private static <K, V> V memo(Map<K, V> memo, K key, Function<K, V> compute) {
+        V value = memo.get(key);
+        if (value != null) return value;
+        value = memo.computeIfAbsent(key, compute);
+        if (memo.size() > MEMO_ENTRIES) {
+            Iterator<K> keys = memo.keySet().iterator();
+            for (int excess = memo.size() - MEMO_ENTRIES + MEMO_ENTRIES / 8; excess > 0 && keys.hasNext(); excess--) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        return value;
+    }
+
+    private static int indexOf(String category) {
+        return Arrays.asList(CATEGORIES).indexOf(category);
+    }
+
+    private void contains(String category, String... patterns) {
+        for (String p : patterns) contains.add(p, indexOf(category));
+    }
+
+    private void prefix(String category, String... patterns) {
+        for (String p : patterns) prefixes.add(p, indexOf(category));
+    }
+
+    private void suffix(String category, String... patterns) {
+        for (String p : patterns) suffixes.add(new StringBuilder(p).reverse().toString(), indexOf(category));
+    }
+
+    // Character trie; every node keeps the best (lowest) rule of the patterns ending there
+    private static final class Trie {
+        private final Map<Character, Trie> children = new HashMap<>();
+        private int rule = NO_MATCH;
+
+        void add(String pattern, int rule) {
+            Trie node = this;
+            for (int i = 0; i < pattern.length(); i++) {
+                node = node.children.computeIfAbsent(pattern.charAt(i), c -> new Trie());
+            }
+            node.rule = Math.min(node.rule, rule);
+        }
+
+        int matchPrefix(String s) {
+            return matchFrom(s, 0);
+        }
+
+        int matchAnywhere(String s) {
+            int best = NO_MATCH;
+            for (int i = 0; i < s.length(); i++) {
+                best = Math.min(best, matchFrom(s, i));
+            }
+            return best;
+        }
+
+        int matchSuffix(String s) {
+            int best = NO_MATCH;
+            Trie node = this;
+            for (int i = s.length() - 1; i >= 0 && node != null; i--) {
+                node = node.children.get(s.charAt(i));
+                if (node != null) best = Math.min(best, node.rule);
+            }
+            return best;
+        }
+
+        private int matchFrom(String s, int start) {
+            int best = NO_MATCH;
+            Trie node = this;
+            for (int i = start; i < s.length() && node != null; i++) {
+                node = node.children.get(s.charAt(i));
+                if (node != null) best = Math.min(best, node.rule);
+            }
+            return best;
+        }
+    }
+}
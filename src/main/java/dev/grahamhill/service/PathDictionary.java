@@ -0,0 +1,70 @@
+package dev.grahamhill.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns extension and directory names to dense int ids, and memoizes what analyzeDiff derives from a path,
+ * so the hot loop neither rebuilds substrings nor boxes counts. Safe to use from the diff workers. Nothing is ever
+ * evicted, since counts refer to the ids, so a dictionary lives only as long as the analysis that fills it.
+ */
+final class PathDictionary {
+    // Derived once per path: lowercase form, language id (-1 when the path has no extension) and directory id
+    record PathKeys(String lowerPath, int language, int directory) {}
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<String, PathKeys> paths = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private int size;
+
+    int id(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(name);
+            if (id == null) {
+                if (size == names.length) names = Arrays.copyOf(names, size * 2);
+                names[size] = name;
+                id = size++;
+                // Published after the name is stored, so readers that see the id also see the name
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    PathKeys keys(String path) {
+        return paths.computeIfAbsent(path, this::derive);
+    }
+
+    private PathKeys derive(String path) {
+        String lowerPath = path.toLowerCase();
+        String fileName = path.contains("/") ? path.substring(path.lastIndexOf('/') + 1).toLowerCase() : lowerPath;
+
+        String ext = "";
+        int lastDot = path.lastIndexOf('.');
+        if (lastDot > 0) {
+            ext = path.substring(lastDot + 1).toLowerCase();
+        }
+
+        // Special case for config/tooling files that might not have traditional extensions or are important
+        if (fileName.equals("dockerfile")) ext = "docker";
+        else if (fileName.equals("cmakelists.txt")) ext = "cmake";
+        else if (fileName.equals("makefile")) ext = "make";
+        else if (fileName.equals("jenkinsfile")) ext = "jenkins";
+        else if (fileName.equals(".env")) ext = "env";
+        else if (fileName.equals(".gitignore")) ext = "git";
+
+        String dirPath = "root";
+        int lastSlash = path.lastIndexOf('/');
+        if (lastSlash != -1) {
+            dirPath = path.substring(0, lastSlash);
+        }
+        return new PathKeys(lowerPath, ext.isEmpty() ? -1 : id(ext), id(dirPath));
+    }
+}
@@ -0,0 +1,242 @@
+package dev.grahamhill.service;
+
+import dev.grahamhill.model.CommitInfo;
+import dev.grahamhill.model.ContributorStats;
+import dev.grahamhill.model.RepositoryAnalysis;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Write-behind queue in front of DatabaseService. Saves return at once and a single writer thread stores them;
+ * everything that queued up while the previous transaction ran is written in the next one. A pending save of a
+ * repository's metrics or commits absorbs later saves of the same kind, and a pending setting its later values.
+ * Failures never reach the caller: they go to the callback with a description of the lost write.
+ */
+public class PersistenceQueue implements AutoCloseable {
+    private final DatabaseService databaseService;
+    private final BiConsumer<String, Exception> onFailure;
+    private final Thread writer;
+    private final List<Write> pending = new ArrayList<>();
+    // Writes queued and written so far, absorbed ones not counted; flush() waits for the second to catch up
+    private long queued;
+    private long written;
+    private boolean closed;
+
+    public PersistenceQueue(DatabaseService databaseService, BiConsumer<String, Exception> onFailure) {
+        this.databaseService = databaseService;
+        this.onFailure = onFailure;
+        this.writer = new Thread(this::run, "database-writer");
+        // stop() flushes; a JVM exiting without it must not wait for the queue
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void saveMetrics(String repoId, List<ContributorStats> stats) {
+        enqueue(new MetricsWrite(repoId, stats, true));
+    }
+
+    // Folds into a pending save of the same repository, so scores added right after an analysis land in its run
+    public void updateLatestMetrics(String repoId, List<ContributorStats> stats) {
+        enqueue(new MetricsWrite(repoId, stats, false));
+    }
+
+    public void saveCommits(String repoId, List<CommitInfo> commits) {
+        enqueue(new CommitsWrite(repoId, commits));
+    }
+
+    public void saveAnalysisBaseline(String repoId, String settingsKey, RepositoryAnalysis analysis) {
+        enqueue(new Write("analysis baseline of " + repoId) {
+            @Override
+            void apply(DatabaseService db) throws SQLException {
+                db.saveAnalysisBaseline(repoId, settingsKey, analysis);
+            }
+        });
+    }
+
+    public void saveGlobalSetting(String key, String value) {
+        enqueue(new SettingWrite(key, value));
+    }
+
+    // Returns once everything queued before the call is written, or failed
+    public synchronized void flush() throws InterruptedException {
+        long target = queued;
+        while (written < target) {
+            wait();
+        }
+    }
+
+    // Writes what is still queued and stops the writer thread. An interrupt stops the wait, not the writer,
+    // and is passed on to the caller.
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void enqueue(Write write) {
+        if (closed) throw new IllegalStateException("Persistence queue is closed");
+        // Newest first, so an update lands in the last run queued for its repository
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            if (pending.get(i).absorb(write)) return;
+        }
+        pending.add(write);
+        queued++;
+        notifyAll();
+    }
+
+    private void run() {
+        while (true) {
+            List<Write> batch;
+            synchronized (this) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // only close() ends the writer, once the queue is drained
+                    }
+                }
+                if (pending.isEmpty()) return;
+                batch = new ArrayList<>(pending);
+                pending.clear();
+            }
+            write(batch);
+            synchronized (this) {
+                written += batch.size();
+                notifyAll();
+            }
+        }
+    }
+
+    private void write(List<Write> batch) {
+        try {
+            databaseService.inTransaction(() -> {
+                for (Write write : batch) {
+                    write.apply(databaseService);
+                }
+            });
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                report(batch.get(0), e);
+                return;
+            }
+            // The whole batch was rolled back; written one by one, a bad write only loses itself
+            for (Write write : batch) {
+                try {
+                    write.apply(databaseService);
+                } catch (Exception each) {
+                    report(write, each);
+                }
+            }
+        }
+    }
+
+    private void report(Write write, Exception e) {
+        if (onFailure != null) {
+            onFailure.accept(write.description, e);
+        } else {
+            e.printStackTrace();
+        }
+    }
+
+    private abstract static class Write {
+        final String description;
+
+        Write(String description) {
+            this.description = description;
+        }
+
+        abstract void apply(DatabaseService db) throws SQLException;
+
+        // Takes over a later write while this one is still queued; false when both have to be written
+        boolean absorb(Write later) {
+            return false;
+        }
+    }
+
+    private static final class MetricsWrite extends Write {
+        final String repoId;
+        List<ContributorStats> stats;
+        final boolean newRun;
+
+        MetricsWrite(String repoId, List<ContributorStats> stats, boolean newRun) {
+            super("metrics of " + repoId);
+            this.repoId = repoId;
+            this.stats = stats;
+            this.newRun = newRun;
+        }
+
+        @Override
+        void apply(DatabaseService db) throws SQLException {
+            if (newRun) {
+                db.saveMetrics(repoId, stats);
+            } else {
+                db.updateLatestMetrics(repoId, stats);
+            }
+        }
+
+        // An update replaces the stats of the run it follows; a new run is always written on its own
+        @Override
+        boolean absorb(Write later) {
+            if (!(later instanceof MetricsWrite metrics) || metrics.newRun || !metrics.repoId.equals(repoId)) return false;
+            stats = metrics.stats;
+            return true;
+        }
+    }
+
+    private static final class CommitsWrite extends Write {
+        final String repoId;
+        final List<CommitInfo> commits;
+
+        CommitsWrite(String repoId, List<CommitInfo> commits) {
+            super("commits of " + repoId);
+            this.repoId = repoId;
+            this.commits = new ArrayList<>(commits);
+        }
+
+        @Override
+        void apply(DatabaseService db) throws SQLException {
+            db.saveCommits(repoId, commits);
+        }
+
+        // saveCommits upserts by hash and keeps the last entry of a commit, so the lists can simply be joined
+        @Override
+        boolean absorb(Write later) {
+            if (!(later instanceof CommitsWrite other) || !other.repoId.equals(repoId)) return false;
+            commits.addAll(other.commits);
+            return true;
+        }
+    }
+
+    private static final class SettingWrite extends Write {
+        final String key;
+        String value;
+
+        SettingWrite(String key, String value) {
+            super("setting " + key);
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        void apply(DatabaseService db) throws SQLException {
+            db.saveGlobalSetting(key, value);
+        }
+
+        @Override
+        boolean absorb(Write later) {
+            if (!(later instanceof SettingWrite setting) || !setting.key.equals(key)) return false;
+            value = setting.value;
+            return true;
+        }
+    }
+}
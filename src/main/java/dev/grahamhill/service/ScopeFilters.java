@@ -0,0 +1,127 @@
+package dev.grahamhill.service;
+
+import dev.grahamhill.model.AnalysisScope;
+import org.eclipse.jgit.revwalk.filter.AndRevFilter;
+import org.eclipse.jgit.revwalk.filter.AuthorRevFilter;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.revwalk.filter.MaxCountRevFilter;
+import org.eclipse.jgit.revwalk.filter.OrRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Translates an {@link AnalysisScope} into the filters RevWalk and DiffFormatter apply themselves, so commits
+ * outside the scope are never handed to the collectors. The time filter stops the walk at the first commit
+ * older than the since date, and the count filter after the last commit asked for.
+ */
+final class ScopeFilters {
+
+    private ScopeFilters() {}
+
+    // A new filter per walk: the count filter keeps state
+    static RevFilter revFilter(AnalysisScope scope) {
+        List<RevFilter> filters = new ArrayList<>();
+        ZoneId zone = ZoneId.systemDefault();
+        if (scope.since() != null) {
+            filters.add(CommitTimeRevFilter.after(scope.since().atStartOfDay(zone).toInstant().toEpochMilli()));
+        }
+        if (scope.until() != null) {
+            filters.add(CommitTimeRevFilter.before(scope.until().plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() - 1));
+        }
+        List<RevFilter> authors = new ArrayList<>();
+        for (String author : scope.authors()) {
+            if (!author.isBlank()) authors.add(AuthorRevFilter.create(Pattern.quote(author.trim())));
+        }
+        if (authors.size() == 1) {
+            filters.add(authors.get(0));
+        } else if (authors.size() > 1) {
+            filters.add(OrRevFilter.create(authors));
+        }
+        // Last, so only commits every other filter accepted are counted
+        if (scope.maxCommits() > 0) {
+            filters.add(MaxCountRevFilter.create(scope.maxCommits()));
+        }
+        if (filters.isEmpty()) return RevFilter.ALL;
+        return filters.size() == 1 ? filters.get(0) : AndRevFilter.create(filters);
+    }
+
+    // Paths inside the scope, null when the scope covers the whole tree
+    static TreeFilter pathFilter(AnalysisScope scope) {
+        List<String> include = normalize(scope.includePaths());
+        List<String> exclude = normalize(scope.excludePaths());
+        TreeFilter filter = null;
+        if (!include.isEmpty()) {
+            filter = PathFilterGroup.createFromStrings(include);
+        }
+        if (!exclude.isEmpty()) {
+            TreeFilter excluded = new ExcludePathFilter(exclude);
+            filter = filter == null ? excluded : AndTreeFilter.create(filter, excluded);
+        }
+        return filter;
+    }
+
+    private static List<String> normalize(List<String> paths) {
+        List<String> result = new ArrayList<>();
+        for (String path : paths) {
+            String p = path.trim().replace('\\', '/');
+            while (p.startsWith("/")) p = p.substring(1);
+            while (p.endsWith("/")) p = p.substring(0, p.length() - 1);
+            if (!p.isEmpty()) result.add(p);
+        }
+        return result;
+    }
+
+    /**
+     * Skips a path and everything below it. NotTreeFilter over a PathFilterGroup would also skip the parent
+     * directories of an excluded path, and with them every sibling.
+     */
+    private static final class ExcludePathFilter extends TreeFilter {
+        private final PathFilter[] excluded;
+
+        ExcludePathFilter(List<String> paths) {
+            excluded = new PathFilter[paths.size()];
+            for (int i = 0; i < excluded.length; i++) {
+                excluded[i] = PathFilter.create(paths.get(i));
+            }
+        }
+
+        private ExcludePathFilter(PathFilter[] excluded) {
+            this.excluded = excluded;
+        }
+
+        @Override
+        public boolean include(TreeWalk walker) throws IOException {
+            for (PathFilter filter : excluded) {
+                // 0: the current path is the excluded one or below it; -1 is a parent that still has to be entered
+                if (filter.matchFilter(walker) == 0) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            // A changed directory only counts if something outside the excluded paths changed in it
+            return true;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return new ExcludePathFilter(excluded);
+        }
+
+        @Override
+        public String toString() {
+            return "EXCLUDE(" + List.of(excluded) + ")";
+        }
+    }
+}
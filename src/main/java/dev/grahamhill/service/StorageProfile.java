@@ -0,0 +1,56 @@
+package dev.grahamhill.service;
+
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+/**
+ * JGit pack cache settings sized for the machine running the analysis. The window cache is process wide, so
+ * installing a profile affects every repository opened afterwards. The delta base cache is per ObjectReader,
+ * i.e. per diff worker, so its limit is kept to a small share of the heap.
+ */
+public enum StorageProfile {
+    // Laptops and small heaps: no memory mapping, pack windows on the heap
+    SMALL(64L * WindowCacheConfig.MB, 8 * WindowCacheConfig.KB, 16 * WindowCacheConfig.MB, 128, false),
+    WORKSTATION(512L * WindowCacheConfig.MB, 64 * WindowCacheConfig.KB, 64 * WindowCacheConfig.MB, 512, true),
+    // Large repositories with deep delta chains
+    SERVER(2048L * WindowCacheConfig.MB, 1024 * WindowCacheConfig.KB, 256 * WindowCacheConfig.MB, 2048, true);
+
+    private final long packedGitLimit;
+    private final int windowSize;
+    private final int deltaBaseCacheLimit;
+    private final int openFiles;
+    private final boolean mmap;
+
+    StorageProfile(long packedGitLimit, int windowSize, int deltaBaseCacheLimit, int openFiles, boolean mmap) {
+        this.packedGitLimit = packedGitLimit;
+        this.windowSize = windowSize;
+        this.deltaBaseCacheLimit = deltaBaseCacheLimit;
+        this.openFiles = openFiles;
+        this.mmap = mmap;
+    }
+
+    public static StorageProfile fromSetting(String value) {
+        if (value != null) {
+            for (StorageProfile profile : values()) {
+                if (profile.name().equalsIgnoreCase(value.trim())) return profile;
+            }
+        }
+        return WORKSTATION;
+    }
+
+    public WindowCacheConfig toWindowCacheConfig() {
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        WindowCacheConfig config = new WindowCacheConfig();
+        // Mapped windows live outside the heap; without mmap they count against it
+        config.setPackedGitLimit(mmap ? packedGitLimit : Math.min(packedGitLimit, maxHeap / 4));
+        config.setPackedGitWindowSize(windowSize);
+        config.setPackedGitOpenFiles(openFiles);
+        config.setPackedGitMMAP(mmap);
+        config.setDeltaBaseCacheLimit((int) Math.min(deltaBaseCacheLimit, maxHeap / 16));
+        return config;
+    }
+
+    // Applies to packs opened from now on; windows already cached are dropped by JGit
+    public void install() {
+        toWindowCacheConfig().install();
+    }
+}
@@ -6,6 +6,13 @@ import dev.grahamhill.model.ContributorStats;
 import dev.grahamhill.model.MeaningfulChangeAnalysis;
 import dev.grahamhill.model.FileChange;
 import dev.grahamhill.model.ReportHistory;
+import dev.grahamhill.model.AnalysisBaseline;
+import dev.grahamhill.model.AnalysisProgress;
+import dev.grahamhill.model.AnalysisScope;
+import dev.grahamhill.model.RepositoryAnalysis;
+import dev.grahamhill.model.SkippedBlobs;
+import dev.grahamhill.model.BatchRepoStatus;
+import dev.grahamhill.model.StorageCacheStats;
 import dev.grahamhill.service.DatabaseService;
 import dev.grahamhill.service.EncryptionService;
 import dev.grahamhill.service.ExportService;
@@ -45,6 +52,8 @@ public class MainApp extends Application {
 
     private final GitService gitService = new GitService();
     private DatabaseService databaseService;
+    // Analysis results and settings are stored behind the UI's back; reads that need them call flush() first
+    private PersistenceQueue persistence;
     private final ExportService exportService = new ExportService();
     private EncryptionService encryptionService;
     private final LlmService llmService = new LlmService();
@@ -54,11 +63,19 @@ public class MainApp extends Application {
     private TableView<ContributorStats> statsTable;
     private ListView<String> commitList;
     private Label initialCommitLabel;
+    private ProgressBar analysisProgressBar;
+    private Label analysisProgressLabel;
     private TextField repoPathField;
     private TextField mainBranchField;
     private TextField manualVersionField;
     private TextArea manualDescriptionArea;
     private Spinner<Integer> commitLimitSpinner;
+    private Spinner<Integer> historyDaysSpinner;
+    private Spinner<Integer> largeBlobSpinner;
+    // The running repository analysis, interrupted by the cancel button or by the next analysis started
+    private volatile Thread analysisThread;
+    private final Set<Thread> cancelledAnalyses = java.util.concurrent.ConcurrentHashMap.newKeySet();
+    private Button cancelAnalysisButton;
     private Spinner<Integer> tableLimitSpinner;
     private TextArea aliasesArea;
     private String gendersData = "";
@@ -108,6 +125,11 @@ public class MainApp extends Application {
     private VBox visualsOuterBox;
     private Tab companyBreakdownTab;
     private ListView<String> companyBreakdownList;
+    // Company-wide batch analysis, one status row per repository
+    private BatchAnalysisScheduler.Job batchJob;
+    private ListView<String> batchStatusList;
+    private Label batchSummaryLabel;
+    private final Map<String, BatchRepoStatus> batchStatuses = new LinkedHashMap<>();
 
     private Map<String, String> envConfig = new HashMap<>();
 
@@ -128,6 +150,9 @@ public class MainApp extends Application {
     @Override
     public void start(Stage primaryStage) {
         loadDotenv();
+        // Pack cache sizing has to be in place before the first repository is opened
+        configManager.getStorageProfile().install();
+        gitService.setLargeBlobThreshold(configManager.getLargeBlobThresholdMb() << 20);
         // Initialize UI components before loading settings to avoid NPE
         repoPathField = new TextField();
         mainBranchField = new TextField();
@@ -136,6 +161,20 @@ public class MainApp extends Application {
         commitLimitSpinner = new Spinner<>(0, 10000, 100);
         commitLimitSpinner.setEditable(true);
         commitLimitSpinner.valueProperty().addListener((obs, oldVal, newVal) -> analyzeRepo());
+        // Only commits of the last N days are walked, 0 for the whole history
+        historyDaysSpinner = new Spinner<>(0, 36500, 0);
+        historyDaysSpinner.setEditable(true);
+        historyDaysSpinner.valueProperty().addListener((obs, oldVal, newVal) -> {
+            gitService.setAnalysisScope(AnalysisScope.lastDays(newVal));
+            analyzeRepo();
+        });
+        // Blobs larger than this are never loaded whole; applies to single and batch analyses
+        largeBlobSpinner = new Spinner<>(1, ConfigManager.MAX_LARGE_BLOB_THRESHOLD_MB, configManager.getLargeBlobThresholdMb());
+        largeBlobSpinner.setEditable(true);
+        largeBlobSpinner.valueProperty().addListener((obs, oldVal, newVal) -> {
+            gitService.setLargeBlobThreshold(newVal << 20);
+            analyzeRepo();
+        });
         tableLimitSpinner = new Spinner<>(1, 100, 20);
         tableLimitSpinner.setEditable(true);
         tableLimitSpinner.valueProperty().addListener((obs, oldVal, newVal) -> analyzeRepo());
@@ -159,6 +198,11 @@ public class MainApp extends Application {
         
         try {
             databaseService = new DatabaseService();
+            gitService.setDatabaseService(databaseService);
+            persistence = new PersistenceQueue(databaseService, (what, e) -> {
+                e.printStackTrace();
+                Platform.runLater(() -> showAlert("Database Error", "Could not save " + what + ": " + e.getMessage()));
+            });
         } catch (Exception e) {
             System.err.println("Could not initialize DatabaseService: " + e.getMessage());
             e.printStackTrace();
@@ -175,6 +219,8 @@ public class MainApp extends Application {
         ignoredExtensionsField.textProperty().addListener((obs, oldVal, newVal) -> saveSettings());
         ignoredFoldersField.textProperty().addListener((obs, oldVal, newVal) -> saveSettings());
         commitLimitSpinner.valueProperty().addListener((obs, oldVal, newVal) -> saveSettings());
+        historyDaysSpinner.valueProperty().addListener((obs, oldVal, newVal) -> saveSettings());
+        largeBlobSpinner.valueProperty().addListener((obs, oldVal, newVal) -> saveSettings());
         tableLimitSpinner.valueProperty().addListener((obs, oldVal, newVal) -> saveSettings());
         repoPathField.textProperty().addListener((obs, oldVal, newVal) -> saveSettings());
         mainBranchField.textProperty().addListener((obs, oldVal, newVal) -> saveSettings());
@@ -258,7 +304,14 @@ public class MainApp extends Application {
         browseButton.setOnAction(e -> browseRepo(primaryStage));
         Button analyzeButton = new Button("Analyze");
         analyzeButton.setOnAction(e -> analyzeRepo());
-        repoBox.getChildren().addAll(new Label("Repo Path:"), repoPathField, browseButton, analyzeButton, new Label("Main Branch:"), mainBranchField);
+        cancelAnalysisButton = new Button("Cancel");
+        cancelAnalysisButton.setVisible(false);
+        cancelAnalysisButton.setOnAction(e -> cancelAnalysis());
+        analysisProgressBar = new ProgressBar(0);
+        analysisProgressBar.setPrefWidth(120);
+        analysisProgressBar.setVisible(false);
+        analysisProgressLabel = new Label();
+        repoBox.getChildren().addAll(new Label("Repo Path:"), repoPathField, browseButton, analyzeButton, new Label("Main Branch:"), mainBranchField, analysisProgressBar, analysisProgressLabel, cancelAnalysisButton);
 
         HBox settingsBox = new HBox(10);
         ignoredExtensionsField.setPromptText("e.g. json,csv");
@@ -266,6 +319,8 @@ public class MainApp extends Application {
         
         settingsBox.getChildren().addAll(
                 new Label("Git Tree Commits:"), commitLimitSpinner,
+                new Label("History Days:"), historyDaysSpinner,
+                new Label("Large File MB:"), largeBlobSpinner,
                 new Label("Table Limit:"), tableLimitSpinner,
                 new Label("Ignore Extensions:"), ignoredExtensionsField,
                 new Label("Ignore Folders:"), ignoredFoldersField
@@ -281,8 +336,20 @@ public class MainApp extends Application {
         });
         Button openMdButton = new Button("Open");
         openMdButton.setOnAction(e -> openMdFolder());
+        // The pack cache is installed once in start(), before any repository is opened
+        StorageProfile installedProfile = configManager.getStorageProfile();
+        ComboBox<StorageProfile> storageProfileCombo = new ComboBox<>(FXCollections.observableArrayList(StorageProfile.values()));
+        storageProfileCombo.setValue(installedProfile);
+        storageProfileCombo.setTooltip(new Tooltip("SMALL for laptops and small heaps, WORKSTATION by default, SERVER for large repositories. Takes effect after a restart."));
+        Label storageRestartLabel = new Label();
+        storageProfileCombo.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal == null) return;
+            configManager.saveStorageProfile(newVal);
+            storageRestartLabel.setText(newVal == installedProfile ? "" : "Restart to apply");
+        });
         settingsBox2.getChildren().addAll(
-                new Label("Repo MD:"), mdFolderPathField, browseMdButton, openMdButton
+                new Label("Repo MD:"), mdFolderPathField, browseMdButton, openMdButton,
+                new Label("Pack Cache:"), storageProfileCombo, storageRestartLabel
         );
 
         HBox settingsBox3 = new HBox(10);
@@ -349,7 +416,29 @@ public class MainApp extends Application {
         Button analyzeCompanyButton = new Button("Analyze Selected Repos");
         analyzeCompanyButton.setOnAction(e -> refreshCompanyReviewData(true));
 
-        companyReviewActions.getChildren().addAll(loadCsvsButton, new Label("Company Review MD:"), companyReviewMdPathField, browseCompanyMdButton, analyzeCompanyButton, exportCompanyPdfButton);
+        Button batchSelectedButton = new Button("Re-analyze Selected");
+        batchSelectedButton.setOnAction(e -> startBatchAnalysis(repoSelectionList.getItems().stream()
+                .filter(CompanyMetricSelection::isSelected)
+                .map(s -> new File(s.getMetric().repoName()))
+                .filter(f -> new File(f, ".git").exists())
+                .collect(Collectors.toList())));
+
+        Button batchFolderButton = new Button("Analyze Folder...");
+        batchFolderButton.setOnAction(e -> {
+            DirectoryChooser dc = new DirectoryChooser();
+            dc.setTitle("Select a Folder of Git Repositories");
+            File selected = dc.showDialog(primaryStage);
+            if (selected != null) {
+                startBatchAnalysis(findRepositories(selected));
+            }
+        });
+
+        Button cancelBatchButton = new Button("Cancel Batch");
+        cancelBatchButton.setOnAction(e -> {
+            if (batchJob != null) batchJob.cancel();
+        });
+
+        companyReviewActions.getChildren().addAll(loadCsvsButton, new Label("Company Review MD:"), companyReviewMdPathField, browseCompanyMdButton, analyzeCompanyButton, batchSelectedButton, batchFolderButton, cancelBatchButton, exportCompanyPdfButton);
         
         CheckBox selectAllCheckBox = new CheckBox("Select All");
         selectAllCheckBox.setSelected(true);
@@ -401,7 +490,15 @@ public class MainApp extends Application {
         VBox companyTableBox = new VBox(5, selectAllCheckBox, repoSelectionList);
         companyTableTab.setContent(companyTableBox);
         
-        companyTabPane.getTabs().add(companyTableTab);
+        batchStatusList = new ListView<>();
+        batchSummaryLabel = new Label("No batch analysis running.");
+        Tab batchTab = new Tab("Batch Progress");
+        batchTab.setClosable(false);
+        VBox batchBox = new VBox(5, batchSummaryLabel, batchStatusList);
+        VBox.setVgrow(batchStatusList, javafx.scene.layout.Priority.ALWAYS);
+        batchTab.setContent(batchBox);
+
+        companyTabPane.getTabs().addAll(companyTableTab, batchTab);
         companyModeBox.getChildren().clear();
         companyModeBox.getChildren().addAll(new Label("Company Review Dashboard:"), companyTabPane, companyReviewActions);
         VBox.setVgrow(companyTabPane, javafx.scene.layout.Priority.ALWAYS);
@@ -1080,19 +1177,17 @@ public class MainApp extends Application {
         configManager.saveSetting("repoPath", repoPathField.getText());
         configManager.saveSetting("mainBranch", mainBranchField.getText());
         configManager.saveSetting("commitLimit", String.valueOf(commitLimitSpinner.getValue()));
+        configManager.saveSetting("historyDays", String.valueOf(historyDaysSpinner.getValue()));
+        configManager.saveLargeBlobThresholdMb(largeBlobSpinner.getValue());
         configManager.saveSetting("tableLimit", String.valueOf(tableLimitSpinner.getValue()));
         configManager.saveSetting("ignoredExtensions", ignoredExtensionsField.getText());
         configManager.saveSetting("ignoredFolders", ignoredFoldersField.getText());
         
         // Save global settings to database as well
-        if (databaseService != null) {
-            try {
-                databaseService.saveGlobalSetting("mdFolderPath", mdFolderPathField.getText());
-                databaseService.saveGlobalSetting("coverPagePath", coverPagePathField.getText());
-                databaseService.saveGlobalSetting("requiredFeaturesPath", requiredFeaturesPathField.getText());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        if (persistence != null) {
+            persistence.saveGlobalSetting("mdFolderPath", mdFolderPathField.getText());
+            persistence.saveGlobalSetting("coverPagePath", coverPagePathField.getText());
+            persistence.saveGlobalSetting("requiredFeaturesPath", requiredFeaturesPathField.getText());
         }
     }
 
@@ -1138,6 +1233,7 @@ public class MainApp extends Application {
         repoPathField.setText(configManager.getSetting("repoPath", ""));
         mainBranchField.setText(configManager.getSetting("mainBranch", ""));
         commitLimitSpinner.getValueFactory().setValue(Integer.parseInt(configManager.getSetting("commitLimit", "10")));
+        historyDaysSpinner.getValueFactory().setValue(Integer.parseInt(configManager.getSetting("historyDays", "0")));
         tableLimitSpinner.getValueFactory().setValue(Integer.parseInt(configManager.getSetting("tableLimit", "20")));
         ignoredExtensionsField.setText(configManager.getSetting("ignoredExtensions", "json,xml,csv,lock,txt,package-lock.json,yarn.lock,pnpm-lock.yaml"));
         ignoredFoldersField.setText(configManager.getSetting("ignoredFolders", "node_modules,target,build,dist,.git"));
@@ -1468,22 +1564,25 @@ public class MainApp extends Application {
                 .map(String::trim)
                 .filter(s -> !s.isEmpty())
                 .collect(Collectors.toSet());
-        String structure = gitService.getProjectStructure(repoDir, ignoredFolders, aliasesMap());
-
+        String structure;
         List<CommitInfo> allCommits = null;
         Map<String, List<FileChange>> contributorFiles = null;
-        try {
-            int commitLimit = selectedProvider.equals("Groq") ? 300 : 1000;
-            allCommits = gitService.getLastCommits(repoDir, commitLimit, aliasesMap(), mainBranchField.getText());
-            allCommits = allCommits.stream()
-                    .sorted(Comparator.comparing(CommitInfo::timestamp).reversed())
-                    .limit(commitLimit)
-                    .toList();
-
-            int topFileLimit = selectedProvider.equals("Groq") ? 3 : 5;
-            contributorFiles = gitService.getTopFilesPerContributor(repoDir, topFileLimit, aliasesMap());
-        } catch (Exception e) {
-            e.printStackTrace();
+        // The three reads share one open repository and its pack cache
+        try (GitService.Session _ = gitService.openSession(repoDir)) {
+            structure = gitService.getProjectStructure(repoDir, ignoredFolders, aliasesMap());
+            try {
+                int commitLimit = selectedProvider.equals("Groq") ? 300 : 1000;
+                allCommits = gitService.getLastCommits(repoDir, commitLimit, aliasesMap(), mainBranchField.getText());
+                allCommits = allCommits.stream()
+                        .sorted(Comparator.comparing(CommitInfo::timestamp).reversed())
+                        .limit(commitLimit)
+                        .toList();
+
+                int topFileLimit = selectedProvider.equals("Groq") ? 3 : 5;
+                contributorFiles = gitService.getTopFilesPerContributor(repoDir, topFileLimit, aliasesMap());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
 
         String reqFeatures = readRequiredFeatures();
@@ -1627,6 +1726,8 @@ public class MainApp extends Application {
                 companyMetrics.append("COMPANY REVIEW METRICS (Selected Repositories)\n");
                 companyMetrics.append("===========================================\n\n");
                 
+                // Scores from a report generated just before must be stored before they are read back
+                if (persistence != null) persistence.flush();
                 for (CompanyMetric m : selectedMetrics) {
                     List<ContributorStats> stats = databaseService.getLatestMetrics(m.repoName());
                     if (stats.isEmpty()) {
@@ -2041,6 +2142,8 @@ public class MainApp extends Application {
             showAlert("Error", "Invalid git repository path.");
             return;
         }
+        // Settings changed while an analysis runs make its result stale
+        cancelAnalysis();
 
         String repoId;
         try {
@@ -2080,7 +2183,7 @@ public class MainApp extends Application {
                 .filter(s -> !s.isEmpty())
                 .collect(Collectors.toSet());
 
-        new Thread(() -> {
+        Thread thread = new Thread(() -> {
             try {
                 String reqFeatures = readRequiredFeatures();
                 Map<String, String> currentAliases = aliasesMap();
@@ -2095,50 +2198,68 @@ public class MainApp extends Application {
                     }
                 }
 
-                currentStats = gitService.getContributorStats(repoDir, currentAliases, genderMap, ignoredExtensions, ignoredFolders, reqFeatures);
-                
-                // Apply email overrides to stats
-                currentStats = currentStats.stream().map(s -> {
-                    if (emailOverrides.containsKey(s.name())) {
-                        return new ContributorStats(s.name(), emailOverrides.get(s.name()), s.gender(), 
-                            s.commitCount(), s.mergeCount(), s.linesAdded(), s.linesDeleted(), 
-                            s.languageBreakdown(), s.averageAiProbability(), s.filesAdded(), 
-                            s.filesEdited(), s.filesDeletedCount(), s.meaningfulChangeScore(), s.touchedTests(), s.generatedFilesPushed(), s.documentationLinesAdded(), s.directoryBreakdown());
-                    }
-                    return s;
-                }).collect(Collectors.toList());
-
-                currentMeaningfulAnalysis = gitService.performMeaningfulChangeAnalysis(repoDir, commitLimitSpinner.getValue(), ignoredFolders);
+                // Contributor stats, recent commits, the initial commit and the meaningful change range all come from one pass
                 String mainBranch = mainBranchField.getText();
-                List<CommitInfo> recentCommits = gitService.getLastCommits(repoDir, commitLimitSpinner.getValue(), currentAliases, mainBranch);
-                CommitInfo initial = gitService.getInitialCommit(repoDir, currentAliases);
-
+                // Commits already analyzed in a previous run are reused when nothing was rewritten since
+                AnalysisBaseline baseline = null;
                 if (databaseService != null) {
+                    // The previous run's baseline may still be queued
+                    persistence.flush();
                     try {
-                        databaseService.saveMetrics(finalRepoId, currentStats);
-                        databaseService.saveCommits(finalRepoId, recentCommits);
+                        baseline = databaseService.loadAnalysisBaseline(finalRepoId);
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
                 }
+                Platform.runLater(() -> {
+                    commitList.getItems().clear();
+                    analysisProgressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+                    analysisProgressBar.setVisible(true);
+                    analysisProgressLabel.setText("Analyzing...");
+                });
+                RepositoryAnalysis analysis;
+                try (GitService.Session _ = gitService.openSession(repoDir)) {
+                    analysis = gitService.analyzeRepository(repoDir, currentAliases, genderMap, ignoredExtensions, ignoredFolders, reqFeatures, commitLimitSpinner.getValue(), mainBranch, baseline, new AnalysisProgressSubscriber());
+                }
+                // A cancel arriving after the last commit was walked still discards the result
+                checkAnalysisCancelled();
+                StorageCacheStats cacheStats = gitService.storageCacheStats();
+                currentStats = analysis.contributorStats();
+                
+                // Apply email overrides to stats
+                currentStats = BatchAnalysisScheduler.withEmailOverrides(currentStats, emailOverrides);
+
+                currentMeaningfulAnalysis = analysis.meaningfulChangeAnalysis();
+                List<CommitInfo> recentCommits = analysis.recentCommits();
+                CommitInfo initial = analysis.initialCommit();
+                // Binary and oversized blobs are left out of the line counts, say how many
+                SkippedBlobs skipped = analysis.skippedBlobs();
+                String skippedText = skipped.isEmpty() ? "" : String.format("Not diffed: %d binary, %d oversized (%d MB); %d large files line-counted",
+                        skipped.binaryBlobs(), skipped.oversizedBlobs(), skipped.oversizedBytes() >> 20, skipped.streamedBlobs());
+                String cacheText = String.format("Pack cache: %.0f%% hits, %d files open", cacheStats.hitRatio() * 100, cacheStats.openFiles());
+
+                checkAnalysisCancelled();
+                if (persistence != null) {
+                    persistence.saveMetrics(finalRepoId, currentStats);
+                    persistence.saveCommits(finalRepoId, recentCommits);
+                    persistence.saveAnalysisBaseline(finalRepoId, analysis.settingsKey(), analysis);
+                }
 
+                Thread self = Thread.currentThread();
                 Platform.runLater(() -> {
+                    // Replaced by a newer analysis after it was stored
+                    if (analysisThread != self) return;
                     try {
                         List<ContributorStats> tableStats = groupOthers(currentStats, tableLimitSpinner.getValue());
                         statsTable.setItems(FXCollections.observableArrayList(tableStats));
                         updateCharts(currentStats, recentCommits);
                         commitList.getItems().clear();
                         for (CommitInfo ci : recentCommits) {
-                            String langStr = formatLanguages(ci.languageBreakdown());
-                            String aiStr = String.format("[AI: %.0f%%]", ci.aiProbability() * 100);
-                        
-                            String authorName = ci.authorName();
-                            if (authorName.contains("<") && authorName.contains(">")) {
-                                authorName = authorName.substring(0, authorName.indexOf("<")).trim();
-                            }
-                        
-                            commitList.getItems().add(String.format("[%s] %s: %s (%s) %s", ci.id(), authorName, ci.message(), langStr, aiStr));
+                            commitList.getItems().add(formatCommitRow(ci));
                         }
+                        analysisProgressBar.setVisible(false);
+                        analysisProgressLabel.setText(skippedText);
+                        analysisProgressLabel.setTooltip(new Tooltip(cacheText));
                         if (initial != null) {
                             String initialAuthor = initial.authorName();
                             if (initialAuthor.contains("<") && initialAuthor.contains(">")) {
@@ -2151,10 +2272,104 @@ public class MainApp extends Application {
                     }
                 });
             } catch (Exception e) {
+                Thread self = Thread.currentThread();
+                if (cancelledAnalyses.contains(self)) {
+                    // A run replaced by a newer one leaves the progress display to it
+                    Platform.runLater(() -> {
+                        if (analysisThread != self) return;
+                        analysisProgressBar.setVisible(false);
+                        analysisProgressLabel.setText("Analysis cancelled");
+                    });
+                    return;
+                }
                 e.printStackTrace();
-                Platform.runLater(() -> showAlert("Error", "Analysis failed: " + e.getMessage()));
+                Platform.runLater(() -> {
+                    analysisProgressBar.setVisible(false);
+                    analysisProgressLabel.setText("");
+                    showAlert("Error", "Analysis failed: " + e.getMessage());
+                });
+            } finally {
+                Thread finished = Thread.currentThread();
+                cancelledAnalyses.remove(finished);
+                Platform.runLater(() -> {
+                    if (analysisThread == finished) {
+                        analysisThread = null;
+                        cancelAnalysisButton.setVisible(false);
+                    }
+                });
             }
-        }).start();
+        });
+        analysisThread = thread;
+        cancelAnalysisButton.setVisible(true);
+        thread.start();
+    }
+
+    // Interrupts the running analysis; every phase stops at its next commit and nothing is stored
+    private void cancelAnalysis() {
+        Thread thread = analysisThread;
+        if (thread == null) return;
+        cancelledAnalyses.add(thread);
+        thread.interrupt();
+    }
+
+    // Called on the analysis thread before its result is kept
+    private void checkAnalysisCancelled() throws InterruptedException {
+        if (cancelledAnalyses.contains(Thread.currentThread())) throw new InterruptedException("Analysis cancelled");
+    }
+
+    private String formatCommitRow(CommitInfo ci) {
+        String langStr = formatLanguages(ci.languageBreakdown());
+        String aiStr = String.format("[AI: %.0f%%]", ci.aiProbability() * 100);
+
+        String authorName = ci.authorName();
+        if (authorName.contains("<") && authorName.contains(">")) {
+            authorName = authorName.substring(0, authorName.indexOf("<")).trim();
+        }
+
+        return String.format("[%s] %s: %s (%s) %s", ci.id(), authorName, ci.message(), langStr, aiStr);
+    }
+
+    /**
+     * Shows the partial stats of a running analysis. The next snapshot is only requested once the
+     * FX thread has rendered the current one, so a busy UI slows the walk down instead of queueing updates.
+     */
+    private class AnalysisProgressSubscriber implements java.util.concurrent.Flow.Subscriber<AnalysisProgress> {
+        private java.util.concurrent.Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(java.util.concurrent.Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(AnalysisProgress progress) {
+            Platform.runLater(() -> {
+                if (!progress.finished()) {
+                    statsTable.setItems(FXCollections.observableArrayList(groupOthers(progress.contributorStats(), tableLimitSpinner.getValue())));
+                    for (CommitInfo ci : progress.newCommits()) {
+                        commitList.getItems().add(formatCommitRow(ci));
+                    }
+                    analysisProgressBar.setProgress(progress.totalCommits() > 0 ? progress.fraction() : ProgressBar.INDETERMINATE_PROGRESS);
+                    String label = String.format("%d / %d commits", progress.commitsProcessed(), progress.totalCommits());
+                    long eta = progress.estimatedRemainingMillis();
+                    if (eta >= 0) {
+                        label += String.format(" (~%ds left)", Math.max(1, eta / 1000));
+                    }
+                    analysisProgressLabel.setText(label);
+                }
+                subscription.request(1);
+            });
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // The analysis thread reports the failure itself
+        }
+
+        @Override
+        public void onComplete() {
+        }
     }
 
     private List<ContributorStats> groupOthers(List<ContributorStats> stats, int limit) {
@@ -2361,6 +2576,101 @@ public class MainApp extends Application {
         }
     }
 
+    // The folder itself if it is a repository, otherwise every repository directly inside it
+    private List<File> findRepositories(File folder) {
+        if (new File(folder, ".git").exists()) return List.of(folder);
+        File[] children = folder.listFiles(f -> f.isDirectory() && new File(f, ".git").exists());
+        if (children == null) return List.of();
+        return Arrays.stream(children).sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * Analyzes the repositories a few at a time with the current settings, storing each result as it finishes.
+     * The company view is refreshed from the database once the whole batch is done or cancelled.
+     */
+    private void startBatchAnalysis(List<File> repositories) {
+        if (batchJob != null && !batchJob.completion().isDone()) {
+            showAlert("Warning", "A batch analysis is already running.");
+            return;
+        }
+        if (repositories.isEmpty()) {
+            showAlert("Warning", "No git repositories to analyze.");
+            return;
+        }
+        if (databaseService == null) {
+            showAlert("Error", "The database is not available, batch results could not be stored.");
+            return;
+        }
+
+        Set<String> ignoredExtensions = Arrays.stream(ignoredExtensionsField.getText().split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(s -> s.startsWith(".") ? s : "." + s)
+                .collect(Collectors.toSet());
+        Set<String> ignoredFolders = Arrays.stream(ignoredFoldersField.getText().split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toSet());
+        BatchAnalysisScheduler.Settings settings = new BatchAnalysisScheduler.Settings(
+                aliasesMap(),
+                keyValueLines(gendersData),
+                keyValueLines(configManager.getSetting("emailOverrides", "")),
+                ignoredExtensions,
+                ignoredFolders,
+                readRequiredFeatures(),
+                commitLimitSpinner.getValue(),
+                mainBranchField.getText()
+        );
+
+        batchStatuses.clear();
+        batchStatusList.getItems().clear();
+        BatchAnalysisScheduler scheduler = new BatchAnalysisScheduler(gitService, databaseService,
+                BatchAnalysisScheduler.defaultWorkers(), BatchAnalysisScheduler.defaultMemoryBudget());
+        batchJob = scheduler.start(repositories, settings, status -> Platform.runLater(() -> showBatchStatus(status)));
+        batchJob.completion().thenRun(() -> Platform.runLater(() -> {
+            // Drop the cached rows so refreshCompanyReviewData reloads the new metrics
+            repoSelectionList.getItems().removeIf(item -> batchStatuses.containsKey(item.getMetric().repoName()));
+            refreshCompanyReviewData(true);
+        }));
+    }
+
+    private void showBatchStatus(BatchRepoStatus status) {
+        batchStatuses.put(status.repoId(), status);
+        List<String> rows = new ArrayList<>();
+        int done = 0;
+        int failed = 0;
+        int cancelled = 0;
+        for (BatchRepoStatus s : batchStatuses.values()) {
+            String row = new File(s.repoId()).getName() + " - " + s.state();
+            if (s.state() == BatchRepoStatus.State.RUNNING && s.totalCommits() > 0) {
+                row += String.format(" %.0f%% (%d / %d commits)", s.fraction() * 100, s.commitsProcessed(), s.totalCommits());
+            }
+            if (!s.message().isEmpty()) row += ": " + s.message();
+            rows.add(row);
+            switch (s.state()) {
+                case DONE -> done++;
+                case FAILED -> failed++;
+                case CANCELLED -> cancelled++;
+                default -> {}
+            }
+        }
+        batchStatusList.getItems().setAll(rows);
+        batchSummaryLabel.setText(String.format("Batch: %d of %d done, %d failed, %d cancelled",
+                done, batchStatuses.size(), failed, cancelled));
+    }
+
+    // "key=value" per line, as the aliases, genders and email overrides are stored
+    private static Map<String, String> keyValueLines(String text) {
+        Map<String, String> values = new HashMap<>();
+        for (String line : text.split("\n")) {
+            if (line.contains("=")) {
+                String[] parts = line.split("=", 2);
+                values.put(parts[0].trim(), parts[1].trim());
+            }
+        }
+        return values;
+    }
+
     private void refreshCompanyReviewData(boolean updateLowerTabs) {
         if (databaseService == null) return;
         try {
@@ -2379,35 +2689,8 @@ public class MainApp extends Application {
                     continue;
                 }
 
-                List<ContributorStats> stats = databaseService.getLatestMetrics(repoId);
-                if (stats.isEmpty()) continue;
-
-                int totalCommits = stats.stream().mapToInt(ContributorStats::commitCount).sum();
-                int totalAdded = stats.stream().mapToInt(ContributorStats::linesAdded).sum();
-                int totalDeleted = stats.stream().mapToInt(ContributorStats::linesDeleted).sum();
-                double avgScore = stats.stream().mapToDouble(ContributorStats::meaningfulChangeScore).average().orElse(0.0);
-                
-                Map<String, Integer> langTotals = new HashMap<>();
-                for (ContributorStats s : stats) {
-                    if (s.languageBreakdown() != null) {
-                        s.languageBreakdown().forEach((l, c) -> langTotals.merge(l, c, Integer::sum));
-                    }
-                }
-                String primaryLang = langTotals.entrySet().stream()
-                        .max(Map.Entry.comparingByValue())
-                        .map(Map.Entry::getKey)
-                        .orElse("N/A");
-
-                CompanyMetric metric = new CompanyMetric(
-                    repoId,
-                    stats.size(),
-                    totalCommits,
-                    totalAdded,
-                    totalDeleted,
-                    avgScore,
-                    primaryLang,
-                    langTotals
-                );
+                CompanyMetric metric = databaseService.getLatestCompanyMetric(repoId);
+                if (metric == null) continue;
                 newSelections.add(new CompanyMetricSelection(metric));
             }
             
@@ -2728,19 +3011,15 @@ public class MainApp extends Application {
         if (file != null) {
             if (aiReviewCheckBox.isSelected()) {
                 generateLlmReport(() -> {
-                    if (databaseService != null) {
+                    if (persistence != null) {
+                        String path = repoPathField.getText();
+                        String repoId;
                         try {
-                            String path = repoPathField.getText();
-                            String repoId;
-                            try {
-                                repoId = new File(path).getCanonicalPath();
-                            } catch (Exception e) {
-                                repoId = new File(path).getAbsolutePath();
-                            }
-                            databaseService.saveMetrics(repoId, currentStats);
+                            repoId = new File(path).getCanonicalPath();
                         } catch (Exception e) {
-                            e.printStackTrace();
+                            repoId = new File(path).getAbsolutePath();
                         }
+                        persistence.updateLatestMetrics(repoId, currentStats);
                     }
                     performPdfExport(file);
                 });
@@ -2993,19 +3272,15 @@ public class MainApp extends Application {
             return s;
         }).collect(Collectors.toList());
 
-        if (databaseService != null) {
+        if (persistence != null) {
+            String path = repoPathField.getText();
+            String repoId;
             try {
-                String path = repoPathField.getText();
-                String repoId;
-                try {
-                    repoId = new File(path).getCanonicalPath();
-                } catch (Exception e) {
-                    repoId = new File(path).getAbsolutePath();
-                }
-                databaseService.saveMetrics(repoId, currentStats);
+                repoId = new File(path).getCanonicalPath();
             } catch (Exception e) {
-                e.printStackTrace();
+                repoId = new File(path).getAbsolutePath();
             }
+            persistence.updateLatestMetrics(repoId, currentStats);
         }
 
         Platform.runLater(() -> {
@@ -3054,6 +3329,32 @@ public class MainApp extends Application {
         alert.showAndWait();
     }
 
+    @Override
+    public void stop() {
+        // Running batch workers would keep saving into the connections closed below
+        if (batchJob != null && !batchJob.completion().isDone()) {
+            batchJob.cancel();
+            try {
+                batchJob.completion().get(30, java.util.concurrent.TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Batch analysis did not stop in time: " + e.getMessage());
+            }
+        }
+        gitService.close();
+        // Queued results are written before the connections close
+        if (persistence != null) persistence.close();
+        // Closing the last connection checkpoints the WAL back into the database file
+        if (databaseService != null) {
+            try {
+                databaseService.close();
+            } catch (Exception e) {
+                System.err.println("Could not close DatabaseService: " + e.getMessage());
+            }
+        }
+    }
+
     private void loadDotenv() {
         // Try to load from local file first (development/override)
         File envFile = new File(".env");